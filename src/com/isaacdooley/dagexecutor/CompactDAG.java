@@ -0,0 +1,224 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * A DAG backed by the arrays of a DAGTopology rather than by per-edge
+ * collections. Each task keeps a count of its unfinished dependencies, and
+ * tasks whose count reaches zero are queued, so finding the next runnable task
+ * and finishing a task cost time proportional to the task's own edges. The
+ * graph is fixed when it is created; the insert() methods are unsupported.
+ */
+class CompactDAG extends DAG {
+
+	private final DAGTopology _topology;
+	private final Runnable[] _tasks;
+
+	/** The number of unfinished dependencies of each task */
+	private final int[] _remaining;
+	private final boolean[] _done;
+
+	/**
+	 * Runnable tasks in the order they became runnable. Every task is queued
+	 * at most once, so entries before _head have been scheduled.
+	 */
+	private final int[] _ready;
+	private int _head = 0;
+	private int _tail = 0;
+
+	/** An open-addressed identity map from Runnable to task index */
+	private final Runnable[] _indexKeys;
+	private final int[] _indexValues;
+
+	private Map<Runnable, Throwable> _errors = null;
+	private int _numFinished = 0;
+
+	CompactDAG(DAGTopology topology, Runnable[] tasks) {
+		_topology = topology;
+		_tasks = tasks;
+		int n = tasks.length;
+		int[] offsets = topology._offsets;
+
+		_remaining = new int[n];
+		_done = new boolean[n];
+		for (int i = 0; i < n; i++)
+			_remaining[i] = offsets[i + 1] - offsets[i];
+
+		_ready = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (_remaining[i] == 0)
+				_ready[_tail++] = i;
+		}
+
+		int capacity = Integer.highestOneBit(Math.max(n, 1) * 2) * 2;
+		_indexKeys = new Runnable[capacity];
+		_indexValues = new int[capacity];
+		for (int i = 0; i < n; i++) {
+			int slot = slot(tasks[i]);
+			if (_indexKeys[slot] != null)
+				throw new IllegalArgumentException("Task " + tasks[i]
+						+ " was resolved for more than one id.");
+			_indexKeys[slot] = tasks[i];
+			_indexValues[slot] = i;
+		}
+	}
+
+	/** The slot holding the specified task, or the empty slot it would use */
+	private int slot(Runnable task) {
+		int mask = _indexKeys.length - 1;
+		int slot = System.identityHashCode(task) * 0x9E3779B9 & mask;
+		while (_indexKeys[slot] != null && _indexKeys[slot] != task)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private int indexOf(Runnable task) {
+		int slot = slot(task);
+		if (_indexKeys[slot] == null)
+			throw new IllegalArgumentException("Task " + task
+					+ " is not part of this DAG.");
+		return _indexValues[slot];
+	}
+
+	@Override
+	public synchronized Status status() {
+		if (_errors != null)
+			return Status.ERRORS;
+		if (_head == _tasks.length)
+			return Status.COMPLETED_ALL_TASKS;
+		return Status.INVALID_DEPENDENCIES;
+	}
+
+	@Override
+	public synchronized Map<Runnable, Throwable> getErrors() {
+		return _errors;
+	}
+
+	@Override
+	public synchronized boolean hasNextRunnableTask() {
+		return _head < _tail;
+	}
+
+	@Override
+	public synchronized boolean hasTasks() {
+		return _head < _tasks.length;
+	}
+
+	@Override
+	public void insert(Runnable task) {
+		throw new UnsupportedOperationException(
+				"A DAG loaded from a DAGTopology cannot be modified.");
+	}
+
+	@Override
+	public void insert(Runnable task, Runnable dependency) {
+		throw new UnsupportedOperationException(
+				"A DAG loaded from a DAGTopology cannot be modified.");
+	}
+
+	@Override
+	public void insert(Runnable task, Set<Runnable> dependencies) {
+		throw new UnsupportedOperationException(
+				"A DAG loaded from a DAGTopology cannot be modified.");
+	}
+
+	@Override
+	public synchronized Runnable nextRunnableTask() {
+		if (_head == _tail)
+			return null;
+		return _tasks[_ready[_head++]];
+	}
+
+	@Override
+	public synchronized void notifyDone(Runnable task) {
+		int i = indexOf(task);
+		if (_done[i])
+			return;
+		_done[i] = true;
+		_numFinished++;
+		int[] dependentOffsets = _topology._dependentOffsets;
+		for (int j = dependentOffsets[i]; j < dependentOffsets[i + 1]; j++) {
+			int d = _topology._dependents[j];
+			if (--_remaining[d] == 0)
+				_ready[_tail++] = d;
+		}
+	}
+
+	@Override
+	public synchronized void notifyError(Runnable r, Throwable error) {
+		if (_errors == null)
+			_errors = new HashMap<Runnable, Throwable>();
+		_errors.put(r, error);
+		_numFinished++;
+	}
+
+	@Override
+	public synchronized int numTasks() {
+		return _tasks.length - _head;
+	}
+
+	@Override
+	public synchronized int numFinishedTasks() {
+		return _numFinished;
+	}
+
+	/** The number of dependencies in the graph, finished or not */
+	int numDependencies() {
+		return _topology.numDependencies();
+	}
+
+	@Override
+	public void verifyValidGraph() {
+		// Every dependency in a DAGTopology refers to one of its tasks
+	}
+
+	@Override
+	synchronized Set<Runnable> remainingTasks() {
+		boolean[] scheduled = new boolean[_tasks.length];
+		for (int k = 0; k < _head; k++)
+			scheduled[_ready[k]] = true;
+		ImmutableSet.Builder<Runnable> remaining = ImmutableSet.builder();
+		for (int i = 0; i < _tasks.length; i++) {
+			if (!scheduled[i])
+				remaining.add(_tasks[i]);
+		}
+		return remaining.build();
+	}
+
+	@Override
+	synchronized ImmutableSetMultimap<Runnable, Runnable> remainingDependencies() {
+		ImmutableSetMultimap.Builder<Runnable, Runnable> remaining = ImmutableSetMultimap
+				.builder();
+		int[] offsets = _topology._offsets;
+		int[] dependencies = _topology._dependencies;
+		for (int i = 0; i < _tasks.length; i++) {
+			for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+				if (!_done[dependencies[j]])
+					remaining.put(_tasks[i], _tasks[dependencies[j]]);
+			}
+		}
+		return remaining.build();
+	}
+
+}
@@ -16,12 +16,17 @@
 
 package com.isaacdooley.dagexecutor;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Multimap;
 
 /**
  * A class that can represent a directed-acyclic-graph (DAG) consisting of tasks
@@ -34,6 +39,9 @@ public class DAG {
 	private final ArrayListMultimap<Runnable, Runnable> _dependencies = ArrayListMultimap
 			.create();
 	private Map<Runnable, Throwable> _errors = null;
+	private int _numFinished = 0;
+	/** Set once the executor stops scheduling, to stop fused chains too */
+	private volatile boolean _stopRequested = false;
 
 	public enum Status {
 		/** All tasks were successfully scheduled. */
@@ -52,10 +60,11 @@ public class DAG {
 	 * been been executed by a DAGExecutor.
 	 */
 	public synchronized Status status() {
-		if (_tasks.size() == 0)
-			return Status.COMPLETED_ALL_TASKS;
+		// Check errors first: the last task scheduled may be the one that failed
 		if (_errors != null)
 			return Status.ERRORS;
+		if (_tasks.size() == 0)
+			return Status.COMPLETED_ALL_TASKS;
 		if (_tasks.size() > 0)
 			return Status.INVALID_DEPENDENCIES;
 		throw new RuntimeException("entered unknown state");
@@ -122,18 +131,81 @@ public class DAG {
 	}
 
 	public synchronized void notifyDone(Runnable task) {
+		if (task instanceof FusedTask) {
+			FusedTask fused = (FusedTask) task;
+			_numFinished += fused.numRun();
+			// A chain stopped part way leaves its dependents waiting
+			if (fused.numRun() < fused.members().size())
+				return;
+		} else {
+			_numFinished++;
+		}
 		// Remove t from the list of remaining dependencies for any other tasks.
-		_dependencies.values().remove(task);
+		_dependencies.values().removeAll(Collections.singleton(task));
 	}
 
 	public synchronized void notifyError(Runnable r, Throwable error) {
-		_errors.put(r, error);
+		if (_errors == null)
+			_errors = new HashMap<Runnable, Throwable>();
+		if (r instanceof FusedTask
+				&& error instanceof FusedTask.MemberFailure) {
+			// Report the error against the member of the chain that threw
+			int index = ((FusedTask.MemberFailure) error).index();
+			_errors.put(((FusedTask) r).members().get(index), error.getCause());
+			_numFinished += index + 1;
+		} else {
+			_errors.put(r, error);
+			_numFinished++;
+		}
 	}
 
 	public int numTasks() {
 		return _tasks.size();
 	}
 
+	/** The number of tasks that have finished running, successfully or not. */
+	public synchronized int numFinishedTasks() {
+		return _numFinished;
+	}
+
+	/** A snapshot of the tasks that have not yet been scheduled. */
+	synchronized Set<Runnable> remainingTasks() {
+		return ImmutableSet.copyOf(_tasks);
+	}
+
+	/**
+	 * A snapshot of the outstanding dependencies, keyed by the dependent task.
+	 * Taken before execution this is the full edge set of the graph.
+	 */
+	synchronized ImmutableSetMultimap<Runnable, Runnable> remainingDependencies() {
+		return ImmutableSetMultimap.copyOf(_dependencies);
+	}
+
+	/**
+	 * Ask fused chains of this graph that are running to stop before their
+	 * next member. Called by an executor once it stops scheduling the graph
+	 * after an error or cancellation.
+	 */
+	void requestStop() {
+		_stopRequested = true;
+	}
+
+	boolean stopRequested() {
+		return _stopRequested;
+	}
+
+	/**
+	 * Replace the tasks and dependencies of this DAG with an equivalent graph
+	 * produced by DAGOptimizer. Only valid before execution begins.
+	 */
+	synchronized void replaceGraph(Set<Runnable> tasks,
+			Multimap<Runnable, Runnable> dependencies) {
+		_tasks.clear();
+		_tasks.addAll(tasks);
+		_dependencies.clear();
+		_dependencies.putAll(dependencies);
+	}
+
 	/**
 	 * Verify the validity of the DAG, throwing exceptions if invalid
 	 * dependencies are found.
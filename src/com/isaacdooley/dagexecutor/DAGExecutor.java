@@ -28,13 +28,15 @@ public interface DAGExecutor {
 	 * 
 	 * @param taskGraph
 	 *            A graph of tasks to execute
+	 * @return A future that completes once the graph has finished executing,
+	 *         and reports its status, errors and progress
 	 * @throws InterruptedException
 	 *             The calling thread has been interrupted
 	 * @throws DependencyDoesNotExistException
 	 *             The specified graph contains dependency tasks that have not
 	 *             yet been added to the graph (thus it is not really a graph).
 	 */
-	public void submit(DAG taskGraph) 
+	public DAGFuture submit(DAG taskGraph) 
 			throws InterruptedException, DependencyDoesNotExistException;
 
 	/**
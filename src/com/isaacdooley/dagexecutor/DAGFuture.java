@@ -0,0 +1,85 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.util.Map;
+
+import com.google.common.util.concurrent.AbstractFuture;
+
+/**
+ * A handle on one graph submitted to a DAGExecutor. The future completes with
+ * the graph's final status once no more of its tasks are running or can be
+ * scheduled. Wait for it with get(), bound the wait with get(timeout, unit),
+ * or register a callback with addListener(). The same executor can keep
+ * serving other graphs meanwhile.
+ *
+ * Cancelling the future stops any more of the graph's tasks from being
+ * scheduled; tasks already running are not interrupted.
+ */
+public class DAGFuture extends AbstractFuture<DAG.Status> {
+
+	private final DAG _taskGraph;
+	private final int _numTasks;
+
+	DAGFuture(DAG taskGraph) {
+		_taskGraph = taskGraph;
+		_numTasks = taskGraph.numTasks();
+	}
+
+	/** Complete this future with the graph's current status. */
+	void complete() {
+		set(_taskGraph.status());
+	}
+
+	/** Cancelling also stops fused chains of the graph that are running. */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled)
+			_taskGraph.requestStop();
+		return cancelled;
+	}
+
+	/** The graph this future tracks. */
+	public DAG graph() {
+		return _taskGraph;
+	}
+
+	/**
+	 * The status of the graph. Until the future is done, tasks that have yet
+	 * to be scheduled make this INVALID_DEPENDENCIES.
+	 */
+	public DAG.Status status() {
+		return _taskGraph.status();
+	}
+
+	/** Returns a mapping from failed tasks to the exceptions each threw. */
+	public Map<Runnable, Throwable> getErrors() {
+		return _taskGraph.getErrors();
+	}
+
+	/** The number of tasks in the graph when it was submitted. */
+	public int numTasks() {
+		return _numTasks;
+	}
+
+	/** The number of tasks that have finished running, successfully or not. */
+	public int numFinishedTasks() {
+		return _taskGraph.numFinishedTasks();
+	}
+
+}
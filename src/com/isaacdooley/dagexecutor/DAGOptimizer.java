@@ -0,0 +1,297 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * Rewrites a DAG before execution into an equivalent graph that is cheaper to
+ * schedule. First, dependencies implied by other dependencies are removed
+ * (transitive reduction: A->C is dropped when A->B->C exists). Then each chain
+ * of tasks in which every task is the only dependent of the one before it,
+ * and depends on nothing else, is fused into a single schedulable unit that
+ * runs its members in order. Errors and progress are still reported per
+ * member task.
+ *
+ * Graphs with cycles or missing dependencies, and graphs loaded from a
+ * DAGTopology, are left unchanged.
+ */
+public class DAGOptimizer {
+
+	/** The size of a graph before and after optimization. */
+	public static class Result {
+		private final int _tasksBefore;
+		private final int _dependenciesBefore;
+		private final int _tasksAfter;
+		private final int _dependenciesAfter;
+
+		Result(int tasksBefore, int dependenciesBefore, int tasksAfter,
+				int dependenciesAfter) {
+			_tasksBefore = tasksBefore;
+			_dependenciesBefore = dependenciesBefore;
+			_tasksAfter = tasksAfter;
+			_dependenciesAfter = dependenciesAfter;
+		}
+
+		public int tasksBefore() {
+			return _tasksBefore;
+		}
+
+		public int dependenciesBefore() {
+			return _dependenciesBefore;
+		}
+
+		/** The number of schedulable units, counting each fused chain as one */
+		public int tasksAfter() {
+			return _tasksAfter;
+		}
+
+		public int dependenciesAfter() {
+			return _dependenciesAfter;
+		}
+
+		@Override
+		public String toString() {
+			return "tasks " + _tasksBefore + " -> " + _tasksAfter
+					+ ", dependencies " + _dependenciesBefore + " -> "
+					+ _dependenciesAfter;
+		}
+	}
+
+	/**
+	 * The most tasks whose dependency lists are walked when searching the
+	 * ancestors of one task during transitive reduction. Giving up only leaves
+	 * some redundant dependencies in place. The search from each task then
+	 * costs at most this many dependency lists, so the pass is linear in the
+	 * number of tasks for graphs of bounded in-degree.
+	 */
+	private static final int MAX_VISITS_PER_TASK = 256;
+
+	private DAGOptimizer() {
+	}
+
+	/**
+	 * Optimize the specified graph in place. Call this only before the graph
+	 * is executed; executors do so at submit time when enabled.
+	 */
+	public static Result optimize(DAG taskGraph) {
+		// Checked first: copying a compact graph below would cost far more
+		// than loading it in compact form saved
+		if (taskGraph instanceof CompactDAG) {
+			CompactDAG compact = (CompactDAG) taskGraph;
+			return new Result(compact.numTasks(), compact.numDependencies(),
+					compact.numTasks(), compact.numDependencies());
+		}
+
+		Set<Runnable> tasks = taskGraph.remainingTasks();
+		ImmutableSetMultimap<Runnable, Runnable> dependencies = taskGraph
+				.remainingDependencies();
+		int n = tasks.size();
+		Result unchanged = new Result(n, dependencies.size(), n,
+				dependencies.size());
+
+		Runnable[] byIndex = tasks.toArray(new Runnable[n]);
+		Map<Runnable, Integer> indices = new HashMap<Runnable, Integer>(
+				n * 4 / 3 + 1);
+		for (int i = 0; i < n; i++)
+			indices.put(byIndex[i], i);
+
+		int[][] dependenciesOf = new int[n][];
+		int[] numDependents = new int[n];
+		for (int i = 0; i < n; i++) {
+			Set<Runnable> ds = dependencies.get(byIndex[i]);
+			dependenciesOf[i] = new int[ds.size()];
+			int k = 0;
+			for (Runnable d : ds) {
+				Integer j = indices.get(d);
+				if (j == null)
+					return unchanged; // left for verifyValidGraph()
+				dependenciesOf[i][k++] = j;
+				numDependents[j]++;
+			}
+		}
+
+		int[] position = topologicalPositions(dependenciesOf, numDependents);
+		if (position == null)
+			return unchanged;
+
+		removeTransitiveDependencies(dependenciesOf, position);
+
+		// Recount after the reduction, then find the fusable links: a task
+		// with a single dependency that has no other dependents
+		numDependents = new int[n];
+		for (int[] ds : dependenciesOf) {
+			for (int d : ds)
+				numDependents[d]++;
+		}
+		int[] next = new int[n];
+		boolean[] isChainHead = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			next[i] = -1;
+			isChainHead[i] = true;
+		}
+		for (int i = 0; i < n; i++) {
+			if (dependenciesOf[i].length == 1
+					&& numDependents[dependenciesOf[i][0]] == 1) {
+				next[dependenciesOf[i][0]] = i;
+				isChainHead[i] = false;
+			}
+		}
+
+		Runnable[] unitOf = new Runnable[n];
+		for (int i = 0; i < n; i++) {
+			if (!isChainHead[i])
+				continue;
+			if (next[i] == -1) {
+				unitOf[i] = byIndex[i];
+				continue;
+			}
+			List<Runnable> members = new ArrayList<Runnable>();
+			for (int t = i; t != -1; t = next[t])
+				members.add(byIndex[t]);
+			FusedTask fused = new FusedTask(taskGraph, members);
+			for (int t = i; t != -1; t = next[t])
+				unitOf[t] = fused;
+		}
+
+		// Only chain heads have dependencies outside their own chain
+		Set<Runnable> units = new HashSet<Runnable>();
+		ArrayListMultimap<Runnable, Runnable> unitDependencies = ArrayListMultimap
+				.create();
+		for (int i = 0; i < n; i++) {
+			if (!isChainHead[i])
+				continue;
+			units.add(unitOf[i]);
+			for (int d : dependenciesOf[i])
+				unitDependencies.put(unitOf[i], unitOf[d]);
+		}
+
+		taskGraph.replaceGraph(units, unitDependencies);
+		return new Result(n, dependencies.size(), units.size(),
+				unitDependencies.size());
+	}
+
+	/**
+	 * The position of each task in a topological order, or null if the
+	 * dependencies form a cycle.
+	 */
+	private static int[] topologicalPositions(int[][] dependenciesOf,
+			int[] numDependents) {
+		int n = dependenciesOf.length;
+		int[][] dependentsOf = new int[n][];
+		for (int i = 0; i < n; i++)
+			dependentsOf[i] = new int[numDependents[i]];
+		int[] fill = new int[n];
+		int[] remaining = new int[n];
+		for (int i = 0; i < n; i++) {
+			remaining[i] = dependenciesOf[i].length;
+			for (int d : dependenciesOf[i])
+				dependentsOf[d][fill[d]++] = i;
+		}
+
+		int[] order = new int[n];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < n; i++) {
+			if (remaining[i] == 0)
+				order[tail++] = i;
+		}
+		while (head < tail) {
+			for (int d : dependentsOf[order[head++]]) {
+				if (--remaining[d] == 0)
+					order[tail++] = d;
+			}
+		}
+		if (tail < n)
+			return null;
+
+		int[] position = new int[n];
+		for (int k = 0; k < n; k++)
+			position[order[k]] = k;
+		return position;
+	}
+
+	/**
+	 * Drop each dependency of a task that is also reachable through another
+	 * of its dependencies. The search from a task only visits ancestors
+	 * positioned no earlier than its earliest direct dependency, since nothing
+	 * earlier can lead back to one.
+	 */
+	private static void removeTransitiveDependencies(int[][] dependenciesOf,
+			int[] position) {
+		int n = dependenciesOf.length;
+		int[] visitedBy = new int[n];
+		for (int i = 0; i < n; i++)
+			visitedBy[i] = -1;
+		int[] stack = new int[n];
+
+		for (int u = 0; u < n; u++) {
+			int[] direct = dependenciesOf[u];
+			if (direct.length < 2)
+				continue;
+
+			int earliest = Integer.MAX_VALUE;
+			for (int d : direct)
+				earliest = Math.min(earliest, position[d]);
+
+			int top = 0;
+			int numVisited = 0;
+			for (int d : direct) {
+				if (numVisited++ >= MAX_VISITS_PER_TASK)
+					break;
+				for (int a : dependenciesOf[d]) {
+					if (visitedBy[a] != u && position[a] >= earliest) {
+						visitedBy[a] = u;
+						stack[top++] = a;
+					}
+				}
+			}
+			while (top > 0 && numVisited++ < MAX_VISITS_PER_TASK) {
+				for (int a : dependenciesOf[stack[--top]]) {
+					if (visitedBy[a] != u && position[a] >= earliest) {
+						visitedBy[a] = u;
+						stack[top++] = a;
+					}
+				}
+			}
+
+			int numKept = 0;
+			for (int d : direct) {
+				if (visitedBy[d] != u)
+					numKept++;
+			}
+			if (numKept == direct.length)
+				continue;
+			int[] kept = new int[numKept];
+			int k = 0;
+			for (int d : direct) {
+				if (visitedBy[d] != u)
+					kept[k++] = d;
+			}
+			dependenciesOf[u] = kept;
+		}
+	}
+
+}
@@ -0,0 +1,469 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The shape of a task graph without its task bodies: task ids, the
+ * dependencies between them, optional per-task cost weights and a precomputed
+ * topological order. A topology can be saved to a compact binary file and
+ * loaded back through a memory-mapped buffer, then bound to Runnable objects
+ * with a TaskResolver to produce a DAG ready for submission. This avoids
+ * rebuilding huge graphs edge by edge at startup.
+ *
+ * The file stores a header, the task ids delta-encoded as zig-zag varints,
+ * the topological order, each task's sorted dependency list delta-encoded as
+ * varints, and finally the costs as raw doubles if present.
+ */
+public class DAGTopology {
+
+	static final int MAGIC = 0x44414747; // "DAGG"
+	static final int VERSION = 1;
+	private static final int HAS_COSTS = 1;
+
+	/** The id of the task at each index */
+	private final long[] _ids;
+	/** Dependencies of task i are _dependencies[_offsets[i]] to [_offsets[i+1]] */
+	final int[] _offsets;
+	final int[] _dependencies;
+	/** The cost of each task, or null if no costs were specified */
+	private final double[] _costs;
+	/** The reverse of the above: tasks that depend on task i */
+	final int[] _dependentOffsets;
+	final int[] _dependents;
+	/** Task indices in topological order, omitting tasks in or after cycles */
+	final int[] _order;
+
+	/** Create a topology, computing its topological order if order is null */
+	private DAGTopology(long[] ids, int[] offsets, int[] dependencies,
+			double[] costs, int[] order) {
+		int n = ids.length;
+		_ids = ids;
+		_offsets = offsets;
+		_dependencies = dependencies;
+		_costs = costs;
+
+		_dependentOffsets = new int[n + 1];
+		for (int j = 0; j < dependencies.length; j++)
+			_dependentOffsets[dependencies[j] + 1]++;
+		for (int i = 0; i < n; i++)
+			_dependentOffsets[i + 1] += _dependentOffsets[i];
+		int[] fill = Arrays.copyOf(_dependentOffsets, n);
+		_dependents = new int[dependencies.length];
+		for (int i = 0; i < n; i++) {
+			for (int j = offsets[i]; j < offsets[i + 1]; j++)
+				_dependents[fill[dependencies[j]]++] = i;
+		}
+
+		_order = order != null ? order : computeTopologicalOrder();
+	}
+
+	/** Kahn's algorithm over the compacted dependency lists */
+	private int[] computeTopologicalOrder() {
+		int n = _ids.length;
+		int[] remaining = new int[n];
+		for (int i = 0; i < n; i++)
+			remaining[i] = _offsets[i + 1] - _offsets[i];
+
+		int[] order = new int[n];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < n; i++) {
+			if (remaining[i] == 0)
+				order[tail++] = i;
+		}
+		while (head < tail) {
+			int t = order[head++];
+			for (int j = _dependentOffsets[t]; j < _dependentOffsets[t + 1]; j++) {
+				if (--remaining[_dependents[j]] == 0)
+					order[tail++] = _dependents[j];
+			}
+		}
+		return Arrays.copyOf(order, tail);
+	}
+
+	/** Builds a topology one task and one dependency at a time. */
+	public static class Builder {
+		private final Map<Long, Integer> _indices = new HashMap<Long, Integer>();
+		private long[] _ids = new long[16];
+		private double[] _costs = null;
+		private int _numTasks = 0;
+		private int[] _edgeTasks = new int[16];
+		private int[] _edgeDependencies = new int[16];
+		private int _numEdges = 0;
+
+		/** Add a task with the specified id. */
+		public Builder addTask(long id) {
+			if (_indices.containsKey(id))
+				throw new IllegalArgumentException("Task " + id
+						+ " has already been added to the topology.");
+			if (_numTasks == _ids.length) {
+				_ids = Arrays.copyOf(_ids, _numTasks * 2);
+				if (_costs != null)
+					_costs = Arrays.copyOf(_costs, _numTasks * 2);
+			}
+			_indices.put(id, _numTasks);
+			_ids[_numTasks++] = id;
+			return this;
+		}
+
+		/** Add a task with the specified id and cost weight. */
+		public Builder addTask(long id, double cost) {
+			addTask(id);
+			if (_costs == null)
+				_costs = new double[_ids.length];
+			_costs[_numTasks - 1] = cost;
+			return this;
+		}
+
+		/**
+		 * Add a dependency between two tasks that have already been added.
+		 * Duplicate dependencies are ignored.
+		 */
+		public Builder addDependency(long task, long dependency) {
+			if (_numEdges == _edgeTasks.length) {
+				_edgeTasks = Arrays.copyOf(_edgeTasks, _numEdges * 2);
+				_edgeDependencies = Arrays.copyOf(_edgeDependencies,
+						_numEdges * 2);
+			}
+			_edgeTasks[_numEdges] = indexOf(task);
+			_edgeDependencies[_numEdges] = indexOf(dependency);
+			_numEdges++;
+			return this;
+		}
+
+		private int indexOf(long id) {
+			Integer i = _indices.get(id);
+			if (i == null)
+				throw new IllegalArgumentException("Task " + id
+						+ " has not yet been added to the topology.");
+			return i;
+		}
+
+		public DAGTopology build() {
+			int n = _numTasks;
+
+			// Bucket the edges by task, then sort and de-duplicate each bucket
+			int[] offsets = new int[n + 1];
+			for (int e = 0; e < _numEdges; e++)
+				offsets[_edgeTasks[e] + 1]++;
+			for (int i = 0; i < n; i++)
+				offsets[i + 1] += offsets[i];
+			int[] fill = Arrays.copyOf(offsets, n);
+			int[] dependencies = new int[_numEdges];
+			for (int e = 0; e < _numEdges; e++)
+				dependencies[fill[_edgeTasks[e]]++] = _edgeDependencies[e];
+
+			int numUnique = 0;
+			int start = 0;
+			for (int i = 0; i < n; i++) {
+				int end = offsets[i + 1];
+				Arrays.sort(dependencies, start, end);
+				offsets[i] = numUnique;
+				for (int j = start; j < end; j++) {
+					if (j == start || dependencies[j] != dependencies[j - 1])
+						dependencies[numUnique++] = dependencies[j];
+				}
+				start = end;
+			}
+			offsets[n] = numUnique;
+			dependencies = Arrays.copyOf(dependencies, numUnique);
+
+			double[] costs = _costs == null ? null : Arrays.copyOf(_costs, n);
+			return new DAGTopology(Arrays.copyOf(_ids, n), offsets,
+					dependencies, costs, null);
+		}
+	}
+
+	public int numTasks() {
+		return _ids.length;
+	}
+
+	public int numDependencies() {
+		return _dependencies.length;
+	}
+
+	/** The id of the task at the specified index. */
+	public long id(int index) {
+		return _ids[index];
+	}
+
+	/** The indices of the tasks the task at the specified index depends on. */
+	public int[] dependencies(int index) {
+		return Arrays.copyOfRange(_dependencies, _offsets[index],
+				_offsets[index + 1]);
+	}
+
+	public boolean hasCosts() {
+		return _costs != null;
+	}
+
+	/** The cost weight of the task at the specified index, or 0 if none. */
+	public double cost(int index) {
+		return _costs == null ? 0 : _costs[index];
+	}
+
+	/**
+	 * Task indices in a topological order. Tasks that are part of, or depend
+	 * upon, a cycle are omitted.
+	 */
+	public int[] topologicalOrder() {
+		return _order.clone();
+	}
+
+	/** Whether every task appears in the topological order. */
+	public boolean isAcyclic() {
+		return _order.length == _ids.length;
+	}
+
+	/**
+	 * Create a DAG of the tasks that the resolver binds to this topology's
+	 * ids. The DAG works directly on this topology's arrays and cannot be
+	 * modified with insert(). Each call creates an independent DAG, so a
+	 * topology can be loaded once and executed many times.
+	 */
+	public DAG toDAG(TaskResolver resolver) {
+		Runnable[] tasks = new Runnable[_ids.length];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = resolver.resolve(_ids[i]);
+			if (tasks[i] == null)
+				throw new IllegalArgumentException("No task resolved for id "
+						+ _ids[i]);
+		}
+		return new CompactDAG(this, tasks);
+	}
+
+	/** Write this topology to the specified file. */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 64 * 1024));
+		try {
+			int n = _ids.length;
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(_costs == null ? 0 : HAS_COSTS);
+			writeVarint(out, n);
+			writeVarint(out, _dependencies.length);
+			writeVarint(out, _order.length);
+
+			long previousId = 0;
+			for (int i = 0; i < n; i++) {
+				writeVarlong(out, zigZag(_ids[i] - previousId));
+				previousId = _ids[i];
+			}
+
+			int previous = 0;
+			for (int i : _order) {
+				writeVarlong(out, zigZag(i - previous));
+				previous = i;
+			}
+
+			for (int i = 0; i < n; i++) {
+				writeVarint(out, _offsets[i + 1] - _offsets[i]);
+				previous = 0;
+				for (int j = _offsets[i]; j < _offsets[i + 1]; j++) {
+					// Sorted and unique, so every delta after the first is > 0
+					writeVarint(out, _dependencies[j] - previous);
+					previous = _dependencies[j];
+				}
+			}
+
+			if (_costs != null) {
+				for (double c : _costs)
+					out.writeDouble(c);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a topology written by write() by memory-mapping the file.
+	 *
+	 * @throws IOException
+	 *             The file cannot be read, or is truncated or corrupt
+	 */
+	public static DAGTopology read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Topology file is too large to map");
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static DAGTopology read(ByteBuffer in) throws IOException {
+		try {
+			if (in.getInt() != MAGIC)
+				throw new IOException("Not a DAG topology file");
+			int version = in.get();
+			if (version != VERSION)
+				throw new IOException("Unsupported topology version "
+						+ version);
+			int flags = in.get();
+			// Every id, order entry and dependency takes at least one byte
+			int n = readCount(in);
+			int numDependencies = readCount(in);
+			int orderLength = readCount(in);
+			if (orderLength > n)
+				throw new IOException("Corrupt topology file");
+
+			long[] ids = new long[n];
+			long previousId = 0;
+			for (int i = 0; i < n; i++) {
+				ids[i] = previousId + unZigZag(readVarlong(in));
+				previousId = ids[i];
+			}
+
+			int[] order = new int[orderLength];
+			int previous = 0;
+			for (int k = 0; k < orderLength; k++) {
+				order[k] = previous + (int) unZigZag(readVarlong(in));
+				previous = order[k];
+			}
+
+			int[] offsets = new int[n + 1];
+			int[] dependencies = new int[numDependencies];
+			int e = 0;
+			for (int i = 0; i < n; i++) {
+				int count = readVarint(in);
+				if (count < 0 || count > numDependencies - e)
+					throw new IOException("Corrupt topology file");
+				offsets[i] = e;
+				previous = 0;
+				for (int j = 0; j < count; j++) {
+					previous += readVarint(in);
+					if (previous < 0 || previous >= n)
+						throw new IOException("Corrupt topology file");
+					dependencies[e++] = previous;
+				}
+			}
+			offsets[n] = e;
+			if (e != numDependencies)
+				throw new IOException("Corrupt topology file");
+			checkOrder(order, offsets, dependencies);
+
+			double[] costs = null;
+			if ((flags & HAS_COSTS) != 0) {
+				costs = new double[n];
+				in.asDoubleBuffer().get(costs);
+			}
+
+			return new DAGTopology(ids, offsets, dependencies, costs, order);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated topology file");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt topology file");
+		}
+	}
+
+	/**
+	 * Verify that the stored order lists distinct tasks, each after all of
+	 * its dependencies, and omits only tasks in or after a cycle: each
+	 * omitted task must have an omitted dependency. isAcyclic() relies on
+	 * the order being complete in that sense.
+	 */
+	private static void checkOrder(int[] order, int[] offsets,
+			int[] dependencies) throws IOException {
+		int n = offsets.length - 1;
+		int[] position = new int[n];
+		Arrays.fill(position, -1);
+		for (int k = 0; k < order.length; k++) {
+			int i = order[k];
+			if (i < 0 || i >= n || position[i] != -1)
+				throw new IOException("Corrupt topology file");
+			position[i] = k;
+			for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+				if (position[dependencies[j]] == -1)
+					throw new IOException("Corrupt topology file");
+			}
+		}
+		if (order.length == n)
+			return;
+		for (int i = 0; i < n; i++) {
+			if (position[i] != -1)
+				continue;
+			boolean blocked = false;
+			for (int j = offsets[i]; j < offsets[i + 1] && !blocked; j++)
+				blocked = position[dependencies[j]] == -1;
+			if (!blocked)
+				throw new IOException("Corrupt topology file");
+		}
+	}
+
+	/** Read a count of items that each take at least one more byte */
+	private static int readCount(ByteBuffer in) throws IOException {
+		int count = readVarint(in);
+		if (count < 0 || count > in.remaining())
+			throw new IOException("Corrupt topology file");
+		return count;
+	}
+
+	private static long zigZag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unZigZag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, int v)
+			throws IOException {
+		writeVarlong(out, v & 0xffffffffL);
+	}
+
+	private static void writeVarlong(DataOutputStream out, long v)
+			throws IOException {
+		while ((v & ~0x7fL) != 0) {
+			out.writeByte((int) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		return (int) readVarlong(in);
+	}
+
+	private static long readVarlong(ByteBuffer in) {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			v |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		return v;
+	}
+
+}
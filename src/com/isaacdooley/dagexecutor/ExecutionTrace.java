@@ -0,0 +1,434 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An execution trace recorded by an ExecutionTraceWriter. Provides conversion
+ * to the Chrome trace-event JSON format (viewable in chrome://tracing) and an
+ * offline analysis of the realized critical path, the idle time of each worker
+ * and the scheduler lag before each task.
+ */
+public class ExecutionTrace {
+
+	private final Map<Integer, Task> _tasks = new LinkedHashMap<Integer, Task>();
+	private final List<Edge> _edges = new ArrayList<Edge>();
+
+	/** A task recorded in the trace. */
+	public static class Task {
+		private final int _id;
+		private final String _name;
+		private final List<Task> _dependencies = new ArrayList<Task>();
+		private boolean _executed = false;
+		private boolean _failed = false;
+		private long _worker;
+		private long _readyNanos;
+		private long _startNanos;
+		private long _endNanos;
+
+		Task(int id, String name) {
+			_id = id;
+			_name = name;
+		}
+
+		public int id() {
+			return _id;
+		}
+
+		/**
+		 * The toString() of the task's Runnable at the time it was traced,
+		 * truncated to 1024 characters.
+		 */
+		public String name() {
+			return _name;
+		}
+
+		public List<Task> dependencies() {
+			return Collections.unmodifiableList(_dependencies);
+		}
+
+		/**
+		 * Whether the task was run. Tasks in cycles or after failures are
+		 * never run, and the remaining accessors are meaningless for them.
+		 */
+		public boolean wasExecuted() {
+			return _executed;
+		}
+
+		/** Whether the task's run() method threw. */
+		public boolean failed() {
+			return _failed;
+		}
+
+		/** The id of the thread that ran the task. */
+		public long worker() {
+			return _worker;
+		}
+
+		/** When the scheduler found the task runnable and dispatched it. */
+		public long readyNanos() {
+			return _readyNanos;
+		}
+
+		public long startNanos() {
+			return _startNanos;
+		}
+
+		public long endNanos() {
+			return _endNanos;
+		}
+
+		@Override
+		public String toString() {
+			return _name;
+		}
+	}
+
+	/** A dependency edge recorded in the trace. */
+	public static class Edge {
+		private final Task _task;
+		private final Task _dependency;
+
+		Edge(Task task, Task dependency) {
+			_task = task;
+			_dependency = dependency;
+		}
+
+		/** The dependent task. */
+		public Task task() {
+			return _task;
+		}
+
+		/** The task that must finish before task() may start. */
+		public Task dependency() {
+			return _dependency;
+		}
+
+		@Override
+		public String toString() {
+			return _dependency + " -> " + _task;
+		}
+	}
+
+	/**
+	 * The delay between a task's last dependency finishing and the task
+	 * starting, split at the moment the scheduler dispatched the task.
+	 */
+	public static class Lag {
+		private final Edge _edge;
+
+		Lag(Edge edge) {
+			_edge = edge;
+		}
+
+		/** The edge from the task's last dependency to finish. */
+		public Edge edge() {
+			return _edge;
+		}
+
+		/** From the last dependency ending until the task was dispatched. */
+		public long dispatchNanos() {
+			return _edge._task._readyNanos - _edge._dependency._endNanos;
+		}
+
+		/** From the task being dispatched until a worker started it. */
+		public long queueNanos() {
+			return _edge._task._startNanos - _edge._task._readyNanos;
+		}
+
+		public long totalNanos() {
+			return _edge._task._startNanos - _edge._dependency._endNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "dispatch " + micros(dispatchNanos()) + "us, queue "
+					+ micros(queueNanos()) + "us";
+		}
+	}
+
+	private ExecutionTrace() {
+	}
+
+	/** Read a trace written by an ExecutionTraceWriter. */
+	public static ExecutionTrace read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				stream));
+		if (in.readInt() != ExecutionTraceWriter.MAGIC)
+			throw new IOException("Not an execution trace");
+		int version = in.readInt();
+		if (version != ExecutionTraceWriter.VERSION)
+			throw new IOException("Unsupported trace version " + version);
+
+		ExecutionTrace trace = new ExecutionTrace();
+		int type;
+		while ((type = in.read()) != -1) {
+			switch (type) {
+			case ExecutionTraceWriter.TASK_RECORD: {
+				int id = in.readInt();
+				trace._tasks.put(id, new Task(id, in.readUTF()));
+				break;
+			}
+			case ExecutionTraceWriter.EDGE_RECORD: {
+				Task task = trace.task(in.readInt());
+				Task dependency = trace.task(in.readInt());
+				task._dependencies.add(dependency);
+				trace._edges.add(new Edge(task, dependency));
+				break;
+			}
+			case ExecutionTraceWriter.EXECUTION_RECORD: {
+				Task task = trace.task(in.readInt());
+				task._executed = true;
+				task._worker = in.readLong();
+				task._readyNanos = in.readLong();
+				task._startNanos = in.readLong();
+				task._endNanos = in.readLong();
+				task._failed = in.readBoolean();
+				break;
+			}
+			default:
+				throw new IOException("Unknown trace record type " + type);
+			}
+		}
+		return trace;
+	}
+
+	/** Read a trace written by an ExecutionTraceWriter to a file. */
+	public static ExecutionTrace read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private Task task(int id) throws IOException {
+		Task t = _tasks.get(id);
+		if (t == null)
+			throw new IOException("Trace refers to unknown task " + id);
+		return t;
+	}
+
+	public Collection<Task> tasks() {
+		return Collections.unmodifiableCollection(_tasks.values());
+	}
+
+	public List<Edge> edges() {
+		return Collections.unmodifiableList(_edges);
+	}
+
+	/**
+	 * The realized critical path: starting from the last task to finish,
+	 * repeatedly step back to the dependency that finished last. Returned in
+	 * execution order.
+	 */
+	public List<Task> criticalPath() {
+		Task last = null;
+		for (Task t : _tasks.values()) {
+			if (t._executed && (last == null || t._endNanos > last._endNanos))
+				last = t;
+		}
+
+		List<Task> path = new ArrayList<Task>();
+		while (last != null) {
+			path.add(last);
+			Task next = null;
+			for (Task d : last._dependencies) {
+				if (d._executed && (next == null || d._endNanos > next._endNanos))
+					next = d;
+			}
+			last = next;
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * The time each worker spent not running tasks between the first task
+	 * starting and the last task ending, keyed by worker thread id. The trace
+	 * only knows the workers that ran at least one task, so a worker that
+	 * stayed idle for the whole run is missing here rather than reported as
+	 * fully idle.
+	 */
+	public Map<Long, Long> idleWorkerNanos() {
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		Map<Long, Long> busy = new TreeMap<Long, Long>();
+		for (Task t : _tasks.values()) {
+			if (!t._executed)
+				continue;
+			first = Math.min(first, t._startNanos);
+			last = Math.max(last, t._endNanos);
+			Long b = busy.get(t._worker);
+			busy.put(t._worker, (b == null ? 0 : b)
+					+ (t._endNanos - t._startNanos));
+		}
+
+		Map<Long, Long> idle = new TreeMap<Long, Long>();
+		for (Map.Entry<Long, Long> e : busy.entrySet()) {
+			idle.put(e.getKey(), (last - first) - e.getValue());
+		}
+		return idle;
+	}
+
+	/**
+	 * The scheduler lag of each executed task with dependencies. Lag is
+	 * measured from the dependency that finished last, since until then the
+	 * task was waiting on its dependencies rather than on the scheduler.
+	 */
+	public Map<Task, Lag> schedulerLag() {
+		Map<Task, Edge> gating = new LinkedHashMap<Task, Edge>();
+		for (Edge e : _edges) {
+			if (!e._task._executed || !e._dependency._executed)
+				continue;
+			Edge g = gating.get(e._task);
+			if (g == null || e._dependency._endNanos > g._dependency._endNanos)
+				gating.put(e._task, e);
+		}
+
+		Map<Task, Lag> lag = new LinkedHashMap<Task, Lag>();
+		for (Map.Entry<Task, Edge> e : gating.entrySet())
+			lag.put(e.getKey(), new Lag(e.getValue()));
+		return lag;
+	}
+
+	/**
+	 * Write the trace in the Chrome trace-event JSON format. Each executed
+	 * task becomes a complete event on its worker's row, and each dependency
+	 * edge between executed tasks becomes a flow arrow.
+	 */
+	public void writeChromeTrace(Writer out) throws IOException {
+		out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+		boolean first = true;
+		for (Task t : _tasks.values()) {
+			if (!t._executed)
+				continue;
+			if (!first)
+				out.write(',');
+			first = false;
+			out.write("\n{\"name\":");
+			writeJsonString(out, t._name);
+			out.write(",\"cat\":\"task\",\"ph\":\"X\",\"pid\":0,\"tid\":"
+					+ t._worker + ",\"ts\":" + micros(t._startNanos)
+					+ ",\"dur\":" + micros(t._endNanos - t._startNanos)
+					+ ",\"args\":{\"id\":" + t._id + ",\"ready\":"
+					+ micros(t._readyNanos) + ",\"failed\":" + t._failed
+					+ "}}");
+		}
+
+		int flowId = 0;
+		for (Edge e : _edges) {
+			if (!e._task._executed || !e._dependency._executed)
+				continue;
+			if (!first)
+				out.write(',');
+			first = false;
+			out.write("\n{\"name\":\"dependency\",\"cat\":\"dependency\",\"ph\":\"s\",\"id\":"
+					+ flowId + ",\"pid\":0,\"tid\":" + e._dependency._worker
+					+ ",\"ts\":" + micros(e._dependency._endNanos) + "},");
+			out.write("\n{\"name\":\"dependency\",\"cat\":\"dependency\",\"ph\":\"f\",\"bp\":\"e\",\"id\":"
+					+ flowId + ",\"pid\":0,\"tid\":" + e._task._worker
+					+ ",\"ts\":" + micros(e._task._startNanos) + "}");
+			flowId++;
+		}
+		out.write("\n]}\n");
+	}
+
+	private static String micros(long nanos) {
+		return String.valueOf(nanos / 1000.0);
+	}
+
+	private static void writeJsonString(Writer out, String s)
+			throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < 0x20) {
+				out.write(String.format("\\u%04x", (int) c));
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+
+	/**
+	 * Print an analysis of a trace file, optionally converting it to a Chrome
+	 * trace-event JSON file.
+	 *
+	 * Usage: ExecutionTrace trace-file [chrome-json-file]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: ExecutionTrace trace-file [chrome-json-file]");
+			System.exit(1);
+		}
+
+		ExecutionTrace trace = read(new File(args[0]));
+
+		if (args.length == 2) {
+			Writer out = new FileWriter(args[1]);
+			try {
+				trace.writeChromeTrace(out);
+			} finally {
+				out.close();
+			}
+		}
+
+		System.out.println("Critical path:");
+		long previousEnd = -1;
+		for (Task t : trace.criticalPath()) {
+			System.out.println("  " + t.name() + " ran "
+					+ micros(t.endNanos() - t.startNanos()) + "us"
+					+ (previousEnd < 0 ? "" : ", started "
+							+ micros(t.startNanos() - previousEnd)
+							+ "us after its dependency"));
+			previousEnd = t.endNanos();
+		}
+
+		System.out.println("Idle time per worker (that ran any task):");
+		for (Map.Entry<Long, Long> e : trace.idleWorkerNanos().entrySet()) {
+			System.out.println("  thread " + e.getKey() + ": "
+					+ micros(e.getValue()) + "us");
+		}
+
+		System.out.println("Scheduler lag per task:");
+		for (Lag lag : trace.schedulerLag().values()) {
+			System.out.println("  " + lag.edge() + ": " + lag);
+		}
+	}
+
+}
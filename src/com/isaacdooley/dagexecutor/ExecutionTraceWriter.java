@@ -0,0 +1,170 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records a compact binary trace of the tasks run by a DAGExecutor. The trace
+ * holds every task of each submitted graph, the dependency edges between them,
+ * and for each executed task the worker thread that ran it along with the
+ * times at which it became ready, started and ended. Use ExecutionTrace to
+ * read a trace back, convert it for a timeline viewer or analyze it.
+ *
+ * Records are appended to a buffered stream, so tracing costs a few field
+ * writes per task. An error while tracing, including one thrown by a task's
+ * toString(), disables the writer rather than failing the graph being
+ * executed; it is rethrown by close().
+ */
+public class ExecutionTraceWriter implements Closeable {
+
+	static final int MAGIC = 0x44414754; // "DAGT"
+	static final int VERSION = 1;
+
+	static final byte TASK_RECORD = 1;
+	static final byte EDGE_RECORD = 2;
+	static final byte EXECUTION_RECORD = 3;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The most characters of a task's toString() kept as its name. Even at
+	 * three bytes per character this stays well under the 64KB writeUTF()
+	 * limit, so one long name cannot disable the trace.
+	 */
+	static final int MAX_NAME_LENGTH = 1024;
+
+	private final DataOutputStream _out;
+	/** All timestamps are written relative to the creation of the writer. */
+	private final long _startNanos = System.nanoTime();
+	private int _nextTaskId = 0;
+	private IOException _error = null;
+
+	/** Create a writer that appends the trace to the specified stream. */
+	public ExecutionTraceWriter(OutputStream out) throws IOException {
+		_out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		_out.writeInt(MAGIC);
+		_out.writeInt(VERSION);
+	}
+
+	/** Create a writer that writes the trace to the specified file. */
+	public ExecutionTraceWriter(File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+
+	/** The current time, in nanoseconds, on the clock used by the trace. */
+	long now() {
+		return System.nanoTime() - _startNanos;
+	}
+
+	/**
+	 * Record the tasks and dependencies of a graph that is about to be
+	 * executed, returning the trace ids assigned to its tasks. Tasks are keyed
+	 * by equals() and hashCode(), as they are in the DAG.
+	 */
+	synchronized Map<Runnable, Integer> beginGraph(DAG taskGraph) {
+		Map<Runnable, Integer> ids = new HashMap<Runnable, Integer>();
+		try {
+			for (Runnable t : taskGraph.remainingTasks()) {
+				int id = _nextTaskId++;
+				ids.put(t, id);
+				if (_error == null) {
+					_out.writeByte(TASK_RECORD);
+					_out.writeInt(id);
+					_out.writeUTF(name(t));
+				}
+			}
+			if (_error == null) {
+				for (Map.Entry<Runnable, Runnable> e : taskGraph
+						.remainingDependencies().entries()) {
+					Integer task = ids.get(e.getKey());
+					Integer dependency = ids.get(e.getValue());
+					if (task == null || dependency == null)
+						continue;
+					_out.writeByte(EDGE_RECORD);
+					_out.writeInt(task);
+					_out.writeInt(dependency);
+				}
+			}
+		} catch (IOException e) {
+			_error = e;
+		} catch (RuntimeException e) {
+			_error = new IOException(e);
+		}
+		return ids;
+	}
+
+	/** The name recorded for a task, truncated to MAX_NAME_LENGTH */
+	static String name(Runnable task) {
+		String name = String.valueOf(task);
+		if (name.length() <= MAX_NAME_LENGTH)
+			return name;
+		return name.substring(0, MAX_NAME_LENGTH - 3) + "...";
+	}
+
+	/**
+	 * Record the execution of a task previously passed to beginGraph(), given
+	 * the id it was assigned there, or null if it was not assigned one.
+	 */
+	synchronized void taskExecuted(Integer id, long worker, long readyNanos,
+			long startNanos, long endNanos, boolean failed) {
+		if (_error != null || id == null)
+			return;
+		try {
+			_out.writeByte(EXECUTION_RECORD);
+			_out.writeInt(id);
+			_out.writeLong(worker);
+			_out.writeLong(readyNanos);
+			_out.writeLong(startNanos);
+			_out.writeLong(endNanos);
+			_out.writeBoolean(failed);
+		} catch (IOException e) {
+			_error = e;
+		}
+	}
+
+	/** Flush buffered records to the underlying stream. */
+	public synchronized void flush() throws IOException {
+		if (_error != null)
+			throw _error;
+		_out.flush();
+	}
+
+	/**
+	 * Flush and close the underlying stream, throwing any error that occurred
+	 * while the trace was being recorded.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (_error != null)
+				throw _error;
+			_out.flush();
+		} finally {
+			_out.close();
+		}
+	}
+
+}
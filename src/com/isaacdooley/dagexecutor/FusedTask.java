@@ -0,0 +1,89 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.util.List;
+
+/**
+ * A chain of tasks, each depending only on the one before it, that
+ * DAGOptimizer has fused into one schedulable unit. Running it runs the
+ * members in order, stopping at the first that throws. The DAG unwraps the
+ * MemberFailure thrown in that case so errors are reported per member.
+ *
+ * Between members the chain also stops if its graph has been asked to stop,
+ * so an error elsewhere or a cancellation ends it as it would have ended an
+ * unfused chain, whose members are scheduled one at a time.
+ */
+class FusedTask implements Runnable {
+
+	private final DAG _taskGraph;
+	private final List<Runnable> _members;
+	/** The number of members that have run, successfully or not */
+	private volatile int _numRun = 0;
+
+	FusedTask(DAG taskGraph, List<Runnable> members) {
+		_taskGraph = taskGraph;
+		_members = members;
+	}
+
+	List<Runnable> members() {
+		return _members;
+	}
+
+	int numRun() {
+		return _numRun;
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < _members.size(); i++) {
+			if (i > 0 && _taskGraph.stopRequested())
+				return;
+			try {
+				_members.get(i).run();
+			} catch (Throwable err) {
+				throw new MemberFailure(i, err);
+			} finally {
+				_numRun = i + 1;
+			}
+		}
+	}
+
+	/** The first member and the number of others, so long chains stay short */
+	@Override
+	public String toString() {
+		return _members.get(0) + " +" + (_members.size() - 1) + " more";
+	}
+
+	/** Thrown when a member of a FusedTask throws */
+	static class MemberFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private final int _index;
+
+		MemberFailure(int index, Throwable cause) {
+			super(cause);
+			_index = index;
+		}
+
+		/** The index of the member that threw */
+		int index() {
+			return _index;
+		}
+	}
+
+}
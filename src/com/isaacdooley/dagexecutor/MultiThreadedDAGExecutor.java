@@ -16,8 +16,8 @@
 
 package com.isaacdooley.dagexecutor;
 
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -38,6 +38,16 @@ public class MultiThreadedDAGExecutor implements DAGExecutor {
 	 */
 	final private ExecutorService _managePool;
 
+	/**
+	 * Where to record a trace of the execution of submitted graphs, or null
+	 */
+	private volatile ExecutionTraceWriter _traceWriter = null;
+
+	/**
+	 * Whether to run DAGOptimizer on graphs as they are submitted
+	 */
+	private volatile boolean _optimizeGraphs = false;
+
 	/**
 	 * Create a DAGExecutor that schedules tasks in a CachedThreadPool
 	 * consisting of as many threads as needed at a time to schedule all
@@ -57,6 +67,25 @@ public class MultiThreadedDAGExecutor implements DAGExecutor {
 		_managePool = Executors.newCachedThreadPool();
 	}
 
+	/**
+	 * Record the execution of graphs submitted from now on to the specified
+	 * trace writer. Pass null to stop tracing.
+	 */
+	public final void setTraceWriter(ExecutionTraceWriter traceWriter) {
+		_traceWriter = traceWriter;
+	}
+
+	/**
+	 * Enable or disable optimizing graphs with DAGOptimizer as they are
+	 * submitted. Disabled by default. A trace of an optimized graph records
+	 * each fused chain as a single task named after its first member, not
+	 * the individual members. A fused chain that is running when another
+	 * task fails or the graph is cancelled stops before its next member.
+	 */
+	public final void setOptimizeGraphs(boolean optimizeGraphs) {
+		_optimizeGraphs = optimizeGraphs;
+	}
+
 	@Override
 	public final boolean awaitTermination(long timeout, TimeUnit unit)
 			throws InterruptedException {
@@ -85,12 +114,27 @@ public class MultiThreadedDAGExecutor implements DAGExecutor {
 	}
 
 	@Override
-	public final void submit(DAG taskGraph) 
+	public final DAGFuture submit(DAG taskGraph) 
 	throws InterruptedException, DependencyDoesNotExistException {
 		// Verify task graph is valid
 		taskGraph.verifyValidGraph();
-		
-		_managePool.execute(new Runner(taskGraph));
+
+		DAGFuture future = new DAGFuture(taskGraph);
+		// Nothing to schedule, so there is no need for a Runner
+		if (taskGraph.numTasks() == 0) {
+			future.complete();
+			return future;
+		}
+		if (_optimizeGraphs)
+			DAGOptimizer.optimize(taskGraph);
+
+		ExecutionTraceWriter traceWriter = _traceWriter;
+		Map<Runnable, Integer> traceIds = null;
+		if (traceWriter != null)
+			traceIds = traceWriter.beginGraph(taskGraph);
+
+		_managePool.execute(new Runner(future, traceWriter, traceIds));
+		return future;
 	}
 
 	/**
@@ -99,10 +143,16 @@ public class MultiThreadedDAGExecutor implements DAGExecutor {
 	 */
 	private class Runner implements Runnable {
 		final DAG _taskGraph;
-		final CountDownLatch _completed = new CountDownLatch(1);
-
-		public Runner(DAG taskGraph) {
-			_taskGraph = taskGraph;
+		final DAGFuture _future;
+		final ExecutionTraceWriter _traceWriter;
+		final Map<Runnable, Integer> _traceIds;
+
+		public Runner(DAGFuture future, ExecutionTraceWriter traceWriter,
+				Map<Runnable, Integer> traceIds) {
+			_taskGraph = future.graph();
+			_future = future;
+			_traceWriter = traceWriter;
+			_traceIds = traceIds;
 		}
 
 		@Override
@@ -115,43 +165,50 @@ public class MultiThreadedDAGExecutor implements DAGExecutor {
 				long currentlyExecuting = 0;
 
 				while (true) {
-					while (_taskGraph.hasNextRunnableTask()) {
-						Runnable t = _taskGraph.nextRunnableTask();
-						RunnableWrapper wrapper = new RunnableWrapper(t,
-								completionQueue);
-						currentlyExecuting++;
-						_taskPool.execute(wrapper);
+					// Stop scheduling once we encounter any exceptions or the
+					// graph is cancelled
+					if (_taskGraph.getErrors() == null
+							&& !_future.isCancelled()) {
+						while (_taskGraph.hasNextRunnableTask()) {
+							Runnable t = _taskGraph.nextRunnableTask();
+							RunnableWrapper wrapper = new RunnableWrapper(t,
+									completionQueue, _traceWriter);
+							currentlyExecuting++;
+							_taskPool.execute(wrapper);
+						}
+					} else {
+						_taskGraph.requestStop();
 					}
 
-					// Wait for one or more of the tasks to complete
-					if (currentlyExecuting > 0) {
-						do {
-							RunnableWrapper rw = completionQueue.take();
-							currentlyExecuting--;
-							if (rw._err == null) {
-								_taskGraph.notifyDone(rw._innerTask);
-							} else {
-								_taskGraph.notifyError(rw._innerTask, rw._err);
-							}
-						} while (!completionQueue.isEmpty());
-					}
-
-					// Stop if we encountered any exceptions
-					if (_taskGraph.getErrors() != null)
-						return;
-
-					// Stop if we have no runnable tasks (perhaps a cycle of
-					// non-schedulable tasks remains)
-					if (!_taskGraph.hasNextRunnableTask()
-							&& currentlyExecuting == 0)
+					// Stop once nothing is running and nothing more can be
+					// scheduled (perhaps a cycle of non-schedulable tasks
+					// remains)
+					if (currentlyExecuting == 0)
 						return;
 
+					// Wait for one or more of the tasks to complete
+					do {
+						RunnableWrapper rw = completionQueue.take();
+						currentlyExecuting--;
+						if (_traceWriter != null) {
+							_traceWriter.taskExecuted(
+									_traceIds.get(rw._innerTask),
+									rw._worker, rw._readyNanos,
+									rw._startNanos, rw._endNanos,
+									rw._err != null);
+						}
+						if (rw._err == null) {
+							_taskGraph.notifyDone(rw._innerTask);
+						} else {
+							_taskGraph.notifyError(rw._innerTask, rw._err);
+						}
+					} while (!completionQueue.isEmpty());
 				}
 
 			} catch (InterruptedException e) {
 				// do nothing
 			} finally {
-				_completed.countDown();
+				_future.complete();
 			}
 		}
 	}
@@ -159,26 +216,42 @@ public class MultiThreadedDAGExecutor implements DAGExecutor {
 	/**
 	 * A wrapper Runnable object that calls run() on a provided Runnable object,
 	 * providing notification of the completion of the other object's run()
-	 * method. Also records anything thrown by the other object's run() method.
+	 * method. Also records anything thrown by the other object's run() method,
+	 * and when tracing, the thread and times at which it ran.
 	 */
 	private class RunnableWrapper implements Runnable {
 		private final Runnable _innerTask;
 		private final ArrayBlockingQueue<RunnableWrapper> _completionQueue;
+		private final ExecutionTraceWriter _traceWriter;
 		private Throwable _err = null;
+		private long _worker;
+		private long _readyNanos;
+		private long _startNanos;
+		private long _endNanos;
 
 		RunnableWrapper(Runnable r,
-				ArrayBlockingQueue<RunnableWrapper> completionQueue) {
+				ArrayBlockingQueue<RunnableWrapper> completionQueue,
+				ExecutionTraceWriter traceWriter) {
 			_innerTask = r;
 			_completionQueue = completionQueue;
+			_traceWriter = traceWriter;
+			if (traceWriter != null)
+				_readyNanos = traceWriter.now();
 		}
 
 		@Override
 		public void run() {
+			if (_traceWriter != null) {
+				_worker = Thread.currentThread().getId();
+				_startNanos = _traceWriter.now();
+			}
 			try {
 				_innerTask.run();
 			} catch (Throwable err) {
 				_err = err;
 			} finally {
+				if (_traceWriter != null)
+					_endNanos = _traceWriter.now();
 				_completionQueue.add(this);
 			}
 		}
@@ -0,0 +1,37 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.isaacdooley.dagexecutor;
+
+import java.util.Map;
+
+/** Receives notification as each record finishes its pass through a StreamingDAG. */
+public interface RecordListener<T> {
+
+	/**
+	 * Called once all tasks have run for a record, or once no more of its
+	 * tasks will run because one of them threw. An exception thrown here is
+	 * passed to the calling thread's uncaught exception handler.
+	 * 
+	 * @param status
+	 *            COMPLETED_ALL_TASKS, or ERRORS if any task threw
+	 * @param errors
+	 *            A mapping from failed tasks to the exceptions each threw, or
+	 *            null if there were none
+	 */
+	public void recordCompleted(T record, DAG.Status status,
+			Map<RecordTask<T>, Throwable> errors);
+
+}
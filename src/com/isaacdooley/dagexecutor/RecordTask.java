@@ -0,0 +1,27 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.isaacdooley.dagexecutor;
+
+/**
+ * A task in a StreamingDAG. Unlike the Runnable tasks of a DAG, a record task
+ * is run once for every record that flows through the graph.
+ */
+public interface RecordTask<T> {
+
+	/** Process the specified record. */
+	public void run(T record);
+
+}
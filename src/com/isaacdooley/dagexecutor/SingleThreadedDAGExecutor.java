@@ -16,12 +16,41 @@
 
 package com.isaacdooley.dagexecutor;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 
 /** A DAGExecutor that runs tasks one at a time sequentially in the thread that calls submit(). */
 public class SingleThreadedDAGExecutor implements DAGExecutor {
 
+	/**
+	 * Where to record a trace of the execution of submitted graphs, or null
+	 */
+	private ExecutionTraceWriter _traceWriter = null;
+
+	/**
+	 * Whether to run DAGOptimizer on graphs as they are submitted
+	 */
+	private boolean _optimizeGraphs = false;
+
+	/**
+	 * Record the execution of graphs submitted from now on to the specified
+	 * trace writer. Pass null to stop tracing.
+	 */
+	public void setTraceWriter(ExecutionTraceWriter traceWriter) {
+		_traceWriter = traceWriter;
+	}
+
+	/**
+	 * Enable or disable optimizing graphs with DAGOptimizer as they are
+	 * submitted. Disabled by default. A trace of an optimized graph records
+	 * each fused chain as a single task named after its first member, not
+	 * the individual members.
+	 */
+	public void setOptimizeGraphs(boolean optimizeGraphs) {
+		_optimizeGraphs = optimizeGraphs;
+	}
+
 	@Override
 	public boolean awaitTermination(long timeout, TimeUnit units) {
 		return true;
@@ -47,10 +76,20 @@ public class SingleThreadedDAGExecutor implements DAGExecutor {
 	}
 
 	@Override
-	public void submit(DAG taskGraph) {
+	public DAGFuture submit(DAG taskGraph) {
+		DAGFuture future = new DAGFuture(taskGraph);
+		if (_optimizeGraphs)
+			DAGOptimizer.optimize(taskGraph);
+
+		ExecutionTraceWriter traceWriter = _traceWriter;
+		Map<Runnable, Integer> traceIds = null;
+		if (traceWriter != null)
+			traceIds = traceWriter.beginGraph(taskGraph);
+
 		while (taskGraph.hasNextRunnableTask()) {
 			Runnable t = taskGraph.nextRunnableTask();
 			boolean hadError = false;
+			long startNanos = traceWriter == null ? 0 : traceWriter.now();
 
 			try {
 				t.run();
@@ -59,10 +98,20 @@ public class SingleThreadedDAGExecutor implements DAGExecutor {
 				taskGraph.notifyError(t, err);
 			}
 
+			if (traceWriter != null) {
+				// Tasks run as soon as they are found, so ready == start
+				traceWriter.taskExecuted(traceIds.get(t), Thread
+						.currentThread().getId(), startNanos, startNanos,
+						traceWriter.now(), hadError);
+			}
+
 			if (!hadError) {
 				taskGraph.notifyDone(t);
 			}
 		}
+
+		future.complete();
+		return future;
 	}
 
 	
@@ -0,0 +1,84 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A fixed graph of RecordTasks that a StreamingDAGExecutor runs once per
+ * record. Build it like a DAG; dependencies that have not yet been inserted
+ * are added to the graph automatically.
+ */
+public class StreamingDAG<T> {
+
+	private final List<RecordTask<T>> _tasks = new ArrayList<RecordTask<T>>();
+	private final Map<RecordTask<T>, Integer> _indices = new IdentityHashMap<RecordTask<T>, Integer>();
+	private final List<int[]> _dependencies = new ArrayList<int[]>();
+
+	/** Add an in-degree-zero task to this graph. */
+	public synchronized void insert(RecordTask<T> task) {
+		indexOf(task);
+	}
+
+	/** Add a task that depends upon another specified task to this graph. */
+	public synchronized void insert(RecordTask<T> task,
+			RecordTask<T> dependency) {
+		_dependencies.add(new int[] { indexOf(task), indexOf(dependency) });
+	}
+
+	/** Add a task that depends upon a set of tasks to this graph. */
+	public synchronized void insert(RecordTask<T> task,
+			Set<RecordTask<T>> dependencies) {
+		int t = indexOf(task);
+		for (RecordTask<T> d : dependencies)
+			_dependencies.add(new int[] { t, indexOf(d) });
+	}
+
+	public synchronized int numTasks() {
+		return _tasks.size();
+	}
+
+	private int indexOf(RecordTask<T> task) {
+		Integer i = _indices.get(task);
+		if (i == null) {
+			i = _tasks.size();
+			_tasks.add(task);
+			_indices.put(task, i);
+		}
+		return i;
+	}
+
+	/** The tasks, in the order of their indices in topology(). */
+	synchronized List<RecordTask<T>> tasks() {
+		return new ArrayList<RecordTask<T>>(_tasks);
+	}
+
+	/** The graph's shape, using each task's index as its id. */
+	synchronized DAGTopology topology() {
+		DAGTopology.Builder builder = new DAGTopology.Builder();
+		for (int i = 0; i < _tasks.size(); i++)
+			builder.addTask(i);
+		for (int[] e : _dependencies)
+			builder.addDependency(e[0], e[1]);
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Pipelines a stream of records through one fixed StreamingDAG. Each record
+ * runs every task of the graph, respecting its dependencies, and different
+ * records occupy different parts of the graph at the same time. Tasks of all
+ * records share one pool of worker threads, and no per-record scheduling
+ * thread or queue is created.
+ *
+ * At most a fixed number of records are in flight at once; put() blocks the
+ * producer until a record completes when that limit is reached. Optionally,
+ * completions are reported to the RecordListener in the order the records were
+ * put, in which case a record counts as in flight until it has been reported.
+ *
+ * As with a DAG, once a task throws no further tasks are started for that
+ * record.
+ */
+public class StreamingDAGExecutor<T> {
+
+	/**
+	 * A pool of threads for running the tasks of all records
+	 */
+	private final ExecutorService _taskPool;
+
+	private final List<RecordTask<T>> _tasks;
+	private final DAGTopology _topology;
+	private final int[] _roots;
+
+	/** Permits for records that may be put before put() blocks */
+	private final Semaphore _permits;
+	private final boolean _ordered;
+	private final RecordListener<T> _listener;
+
+	// The following are guarded by this
+	private long _nextSequence = 0;
+	private long _nextToReport = 0;
+	private final Map<Long, RecordRun> _completedOutOfOrder = new HashMap<Long, RecordRun>();
+	private int _numInFlight = 0;
+	private boolean _shutdown = false;
+	/** Set by shutdownNow(): records in flight will never complete */
+	private volatile boolean _abandoned = false;
+	/** Whether a thread is reporting completions in ordered mode */
+	private boolean _reporting = false;
+
+	/**
+	 * Create an executor for the specified graph.
+	 *
+	 * @param graph
+	 *            The tasks to run for each record
+	 * @param maxNumWorkerThreads
+	 *            The number of threads running tasks
+	 * @param maxInFlightRecords
+	 *            The number of records that may be in flight before put()
+	 *            blocks
+	 * @param ordered
+	 *            Whether the listener must be notified in the order the
+	 *            records were put
+	 * @param listener
+	 *            Notified as each record completes, or null
+	 * @throws IllegalArgumentException
+	 *             The graph contains a cycle
+	 */
+	public StreamingDAGExecutor(StreamingDAG<T> graph,
+			int maxNumWorkerThreads, int maxInFlightRecords, boolean ordered,
+			RecordListener<T> listener) {
+		if (maxInFlightRecords < 1)
+			throw new IllegalArgumentException(
+					"maxInFlightRecords must be positive");
+		_tasks = graph.tasks();
+		_topology = graph.topology();
+		if (!_topology.isAcyclic())
+			throw new IllegalArgumentException(
+					"The dependencies of the graph form a cycle.");
+
+		int[] offsets = _topology._offsets;
+		int n = _tasks.size();
+		int[] roots = new int[n];
+		int numRoots = 0;
+		for (int i = 0; i < n; i++) {
+			if (offsets[i + 1] == offsets[i])
+				roots[numRoots++] = i;
+		}
+		_roots = Arrays.copyOf(roots, numRoots);
+
+		_permits = new Semaphore(maxInFlightRecords);
+		_ordered = ordered;
+		_listener = listener;
+		_taskPool = Executors.newFixedThreadPool(maxNumWorkerThreads);
+	}
+
+	/**
+	 * Start processing a record, first waiting until fewer than the maximum
+	 * number of records are in flight.
+	 *
+	 * @throws RejectedExecutionException
+	 *             The executor has been shut down
+	 */
+	public void put(T record) throws InterruptedException {
+		_permits.acquire();
+		start(record);
+	}
+
+	/**
+	 * Start processing a record if it can be done within the specified
+	 * timeout.
+	 *
+	 * @return false if the maximum number of records remained in flight for
+	 *         the whole timeout
+	 * @throws RejectedExecutionException
+	 *             The executor has been shut down
+	 */
+	public boolean offer(T record, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		if (!_permits.tryAcquire(timeout, unit))
+			return false;
+		start(record);
+		return true;
+	}
+
+	/** The number of records put but not yet completed. */
+	public synchronized int numInFlight() {
+		return _numInFlight;
+	}
+
+	private void start(T record) {
+		RecordRun run;
+		synchronized (this) {
+			if (_shutdown) {
+				_permits.release();
+				throw new RejectedExecutionException(
+						"The executor has been shut down.");
+			}
+			_numInFlight++;
+			run = new RecordRun(record, _nextSequence++);
+		}
+
+		if (_tasks.isEmpty()) {
+			completed(run);
+			return;
+		}
+		for (int i : _roots)
+			execute(run, i);
+	}
+
+	private void execute(RecordRun run, int task) {
+		try {
+			_taskPool.execute(new TaskRun(run, task));
+		} catch (RejectedExecutionException e) {
+			// shutdownNow() abandons the records in flight
+		}
+	}
+
+	/** Report a completed record to the listener and release its permit */
+	private void completed(RecordRun run) {
+		if (!_ordered) {
+			if (!_abandoned)
+				report(run);
+			released(1);
+			return;
+		}
+
+		// Only one thread reports at a time, so records are reported in
+		// sequence, but the listener is called without holding the lock.
+		// Whichever thread is reporting also drains records completed
+		// meanwhile.
+		List<RecordRun> ready = new ArrayList<RecordRun>();
+		synchronized (this) {
+			if (_abandoned)
+				return;
+			_completedOutOfOrder.put(run._sequence, run);
+			if (_reporting)
+				return;
+			_reporting = true;
+		}
+		while (true) {
+			synchronized (this) {
+				RecordRun next;
+				while ((next = _completedOutOfOrder.remove(_nextToReport)) != null) {
+					_nextToReport++;
+					ready.add(next);
+				}
+				if (ready.isEmpty()) {
+					_reporting = false;
+					return;
+				}
+			}
+			for (RecordRun r : ready)
+				report(r);
+			released(ready.size());
+			ready.clear();
+		}
+	}
+
+	/**
+	 * Notify the listener of a completed record. An exception thrown by the
+	 * listener goes to the current thread's uncaught exception handler, so it
+	 * cannot stop other records from being reported and released.
+	 */
+	private void report(RecordRun run) {
+		if (_listener == null)
+			return;
+		Map<RecordTask<T>, Throwable> errors = run.errors();
+		try {
+			_listener.recordCompleted(run._record,
+					errors == null ? DAG.Status.COMPLETED_ALL_TASKS
+							: DAG.Status.ERRORS, errors);
+		} catch (Throwable err) {
+			Thread current = Thread.currentThread();
+			current.getUncaughtExceptionHandler().uncaughtException(current,
+					err);
+		}
+	}
+
+	private void released(int numRecords) {
+		synchronized (this) {
+			// shutdownNow() has already released every record in flight
+			if (_abandoned)
+				return;
+			_numInFlight -= numRecords;
+			if (_shutdown && _numInFlight == 0)
+				_taskPool.shutdown();
+		}
+		_permits.release(numRecords);
+	}
+
+	/**
+	 * Gracefully shutdown the executor. New calls to put() will fail, and
+	 * records already in flight will be completed.
+	 */
+	public synchronized void shutdown() {
+		_shutdown = true;
+		if (_numInFlight == 0)
+			_taskPool.shutdown();
+	}
+
+	/**
+	 * Immediately shutdown the executor. New calls to put() will fail, and all
+	 * currently executing tasks will be interrupted. Records in flight are
+	 * abandoned and never reported, and producers blocked in put() or offer()
+	 * are woken to fail.
+	 */
+	public void shutdownNow() {
+		int numAbandoned;
+		synchronized (this) {
+			_shutdown = true;
+			if (_abandoned)
+				return;
+			_abandoned = true;
+			numAbandoned = _numInFlight;
+			_numInFlight = 0;
+			_completedOutOfOrder.clear();
+			_taskPool.shutdownNow();
+		}
+		_permits.release(numAbandoned);
+	}
+
+	/**
+	 * Blocks until all records in flight have completed after a shutdown
+	 * request, the timeout occurs, or the current thread is interrupted.
+	 *
+	 * @return true if the executor terminated, and false if timed-out before
+	 *         completing all records.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return _taskPool.awaitTermination(timeout, unit);
+	}
+
+	public synchronized boolean isShutdown() {
+		return _shutdown;
+	}
+
+	public boolean isTerminated() {
+		return _taskPool.isTerminated();
+	}
+
+	/** The progress of one record through the graph */
+	private class RecordRun {
+		private final T _record;
+		private final long _sequence;
+		/** The number of unfinished dependencies of each task */
+		private final AtomicIntegerArray _remaining;
+		/** The number of tasks neither finished nor skipped */
+		private final AtomicInteger _unfinished;
+		private volatile boolean _failed = false;
+		private Map<RecordTask<T>, Throwable> _errors = null;
+
+		RecordRun(T record, long sequence) {
+			_record = record;
+			_sequence = sequence;
+			int n = _tasks.size();
+			_remaining = new AtomicIntegerArray(n);
+			for (int i = 0; i < n; i++)
+				_remaining.set(i, _topology._offsets[i + 1]
+						- _topology._offsets[i]);
+			_unfinished = new AtomicInteger(n);
+		}
+
+		synchronized void notifyError(RecordTask<T> task, Throwable error) {
+			if (_errors == null)
+				_errors = new HashMap<RecordTask<T>, Throwable>();
+			_errors.put(task, error);
+			_failed = true;
+		}
+
+		synchronized Map<RecordTask<T>, Throwable> errors() {
+			return _errors;
+		}
+
+		/**
+		 * Release the dependents of a finished task, starting those that
+		 * become runnable, or skipping them if a task has failed.
+		 */
+		void notifyDone(int task) {
+			ArrayDeque<Integer> skipped = null;
+			while (true) {
+				int[] dependentOffsets = _topology._dependentOffsets;
+				for (int j = dependentOffsets[task]; j < dependentOffsets[task + 1]; j++) {
+					int d = _topology._dependents[j];
+					if (_remaining.decrementAndGet(d) != 0)
+						continue;
+					if (_failed) {
+						if (skipped == null)
+							skipped = new ArrayDeque<Integer>();
+						skipped.push(d);
+					} else {
+						execute(this, d);
+					}
+				}
+
+				if (_unfinished.decrementAndGet() == 0)
+					completed(this);
+
+				if (skipped == null || skipped.isEmpty())
+					return;
+				task = skipped.pop();
+			}
+		}
+	}
+
+	/** Runs one task for one record */
+	private class TaskRun implements Runnable {
+		private final RecordRun _run;
+		private final int _task;
+
+		TaskRun(RecordRun run, int task) {
+			_run = run;
+			_task = task;
+		}
+
+		@Override
+		public void run() {
+			RecordTask<T> task = _tasks.get(_task);
+			try {
+				task.run(_run._record);
+			} catch (Throwable err) {
+				_run.notifyError(task, err);
+			} finally {
+				_run.notifyDone(_task);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGFuture;
+import com.isaacdooley.dagexecutor.DAGOptimizer;
+import com.isaacdooley.dagexecutor.DependencyDoesNotExistException;
+import com.isaacdooley.dagexecutor.MultiThreadedDAGExecutor;
+
+/**
+ * Measures the time to execute three synthetic graph shapes with
+ * MultiThreadedDAGExecutor, with and without setOptimizeGraphs(true). The
+ * optimized times include the optimizer itself, which is also timed alone.
+ * The two settings are interleaved within each run, and the first run is a
+ * warm-up that is not counted.
+ *
+ * Usage: DAGOptimizerBenchmark [threads [runs]]
+ */
+public class DAGOptimizerBenchmark {
+
+	private static final AtomicLong _sink = new AtomicLong();
+
+	private interface Shape {
+		DAG create();
+	}
+
+	/**
+	 * 100 layers of 20, each task depending on two tasks of the layer before
+	 * and two of any earlier layer
+	 */
+	private static final Shape LAYERED = new Shape() {
+		@Override
+		public DAG create() {
+			Random random = new Random(1);
+			int numLayers = 100;
+			int width = 20;
+			Runnable[] tasks = tasks(numLayers * width);
+			DAG dag = new DAG();
+			for (int i = 0; i < width; i++)
+				dag.insert(tasks[i]);
+			for (int l = 1; l < numLayers; l++) {
+				for (int i = 0; i < width; i++) {
+					Runnable t = tasks[l * width + i];
+					dag.insert(t);
+					for (int k = 0; k < 2; k++)
+						dag.insert(t, tasks[(l - 1) * width
+								+ random.nextInt(width)]);
+					for (int k = 0; k < 2; k++)
+						dag.insert(t, tasks[random.nextInt(l) * width
+								+ random.nextInt(width)]);
+				}
+			}
+			return dag;
+		}
+
+		@Override
+		public String toString() {
+			return "layered";
+		}
+	};
+
+	/**
+	 * 100 chains of 20 between a root and a sink, each task also depending
+	 * redundantly on the root
+	 */
+	private static final Shape CHAINS = new Shape() {
+		@Override
+		public DAG create() {
+			int numChains = 100;
+			int length = 20;
+			Runnable[] tasks = tasks(numChains * length + 2);
+			Runnable root = tasks[numChains * length];
+			Runnable sink = tasks[numChains * length + 1];
+			DAG dag = new DAG();
+			dag.insert(root);
+			for (int c = 0; c < numChains; c++) {
+				for (int i = 0; i < length; i++) {
+					Runnable t = tasks[c * length + i];
+					dag.insert(t, i == 0 ? root : tasks[c * length + i - 1]);
+					if (i > 1)
+						dag.insert(t, root);
+				}
+				dag.insert(sink, tasks[c * length + length - 1]);
+			}
+			return dag;
+		}
+
+		@Override
+		public String toString() {
+			return "chains";
+		}
+	};
+
+	/** 2000 tasks, three quarters depending on the task before */
+	private static final Shape MIXED = new Shape() {
+		@Override
+		public DAG create() {
+			Random random = new Random(2);
+			int n = 2000;
+			Runnable[] tasks = tasks(n);
+			DAG dag = new DAG();
+			dag.insert(tasks[0]);
+			for (int i = 1; i < n; i++) {
+				if (random.nextInt(4) != 0) {
+					dag.insert(tasks[i], tasks[i - 1]);
+					if (i > 2 && random.nextBoolean())
+						dag.insert(tasks[i], tasks[i - 2]);
+				} else {
+					int k = 1 + random.nextInt(3);
+					for (int j = 0; j < k; j++)
+						dag.insert(tasks[i], tasks[random.nextInt(i)]);
+				}
+			}
+			return dag;
+		}
+
+		@Override
+		public String toString() {
+			return "mixed";
+		}
+	};
+
+	public static void main(String[] args) throws InterruptedException,
+			ExecutionException, DependencyDoesNotExistException {
+		int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+
+		MultiThreadedDAGExecutor plain = new MultiThreadedDAGExecutor(
+				numThreads);
+		MultiThreadedDAGExecutor optimizing = new MultiThreadedDAGExecutor(
+				numThreads);
+		optimizing.setOptimizeGraphs(true);
+
+		System.out.println(numThreads + " worker threads, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		for (Shape shape : new Shape[] { LAYERED, CHAINS, MIXED }) {
+			Timings off = new Timings();
+			Timings on = new Timings();
+			Timings optimize = new Timings();
+			DAGOptimizer.Result result = null;
+			for (int run = 0; run <= runs; run++) {
+				long offNanos = execute(plain, shape.create());
+				long onNanos = execute(optimizing, shape.create());
+				DAG dag = shape.create();
+				long start = System.nanoTime();
+				result = DAGOptimizer.optimize(dag);
+				long optimizeNanos = System.nanoTime() - start;
+				if (run > 0) {
+					off.add(offNanos);
+					on.add(onNanos);
+					optimize.add(optimizeNanos);
+				}
+			}
+			System.out.printf("%s: %s, speedup %.2fx%n", shape, result,
+					off.medianMillis() / on.medianMillis());
+			System.out.println("  not optimized: " + off);
+			System.out.println("  optimized:     " + on);
+			System.out.println("  optimizer:     " + optimize);
+		}
+		plain.shutdownNow();
+		optimizing.shutdownNow();
+	}
+
+	private static long execute(MultiThreadedDAGExecutor executor, DAG dag)
+			throws InterruptedException, ExecutionException,
+			DependencyDoesNotExistException {
+		long start = System.nanoTime();
+		DAGFuture future = executor.submit(dag);
+		if (future.get() != DAG.Status.COMPLETED_ALL_TASKS)
+			throw new IllegalStateException("Graph finished with "
+					+ future.get());
+		return System.nanoTime() - start;
+	}
+
+	private static Runnable[] tasks(int n) {
+		Runnable[] tasks = new Runnable[n];
+		for (int i = 0; i < n; i++) {
+			tasks[i] = new Runnable() {
+				@Override
+				public void run() {
+					_sink.incrementAndGet();
+				}
+			};
+		}
+		return tasks;
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGFuture;
+import com.isaacdooley.dagexecutor.DAGOptimizer;
+import com.isaacdooley.dagexecutor.DAGTopology;
+import com.isaacdooley.dagexecutor.DependencyDoesNotExistException;
+import com.isaacdooley.dagexecutor.ExecutionTrace;
+import com.isaacdooley.dagexecutor.ExecutionTraceWriter;
+import com.isaacdooley.dagexecutor.MultiThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.SingleThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.TaskResolver;
+
+public class DAGOptimizerTest {
+
+	List<String> _result = Collections.synchronizedList(new ArrayList<String>());
+
+	/** A chain t0 -> t1 -> t2 -> t3 with a redundant t0 -> t2 */
+	private DAG chain(Runnable second) {
+		DAG dag = new DAG();
+		Task t0 = new Task("t0");
+		Task t2 = new Task("t2");
+		Task t3 = new Task("t3");
+		dag.insert(t0);
+		dag.insert(second, t0);
+		dag.insert(t2, second);
+		dag.insert(t2, t0);
+		dag.insert(t3, t2);
+		return dag;
+	}
+
+	@Test(timeout = 2000)
+	public void fuseChain() {
+		DAG dag = chain(new Task("t1"));
+		DAGOptimizer.Result result = DAGOptimizer.optimize(dag);
+		Assert.assertEquals(4, result.tasksBefore());
+		Assert.assertEquals(4, result.dependenciesBefore());
+		Assert.assertEquals(1, result.tasksAfter());
+		Assert.assertEquals(0, result.dependenciesAfter());
+		Assert.assertEquals(1, dag.numTasks());
+	}
+
+	@Test(timeout = 2000)
+	public void reduceDiamond() {
+		DAG dag = new DAG();
+		Task top = new Task("top");
+		Task left = new Task("left");
+		Task right = new Task("right");
+		Task bottom = new Task("bottom");
+		dag.insert(top);
+		dag.insert(left, top);
+		dag.insert(right, top);
+		dag.insert(bottom, left);
+		dag.insert(bottom, right);
+		dag.insert(bottom, top);
+
+		DAGOptimizer.Result result = DAGOptimizer.optimize(dag);
+		Assert.assertEquals(4, result.tasksAfter());
+		Assert.assertEquals(4, result.dependenciesAfter());
+	}
+
+	@Test(timeout = 2000)
+	public void cycleUnchanged() {
+		DAG dag = new DAG();
+		Task t0 = new Task("t0");
+		Task t1 = new Task("t1");
+		dag.insert(t0, t1);
+		dag.insert(t1, t0);
+
+		DAGOptimizer.Result result = DAGOptimizer.optimize(dag);
+		Assert.assertEquals(2, result.tasksAfter());
+		Assert.assertEquals(2, result.dependenciesAfter());
+	}
+
+	/** Graphs loaded from a topology are left as they are */
+	@Test(timeout = 2000)
+	public void compactUnchanged() {
+		DAGTopology topology = new DAGTopology.Builder().addTask(0)
+				.addTask(1).addTask(2).addDependency(1, 0)
+				.addDependency(2, 1).build();
+		DAG dag = topology.toDAG(new TaskResolver() {
+			@Override
+			public Runnable resolve(long id) {
+				return new Task("t" + id);
+			}
+		});
+
+		DAGOptimizer.Result result = DAGOptimizer.optimize(dag);
+		Assert.assertEquals(3, result.tasksBefore());
+		Assert.assertEquals(2, result.dependenciesBefore());
+		Assert.assertEquals(3, result.tasksAfter());
+		Assert.assertEquals(2, result.dependenciesAfter());
+		new SingleThreadedDAGExecutor().submit(dag);
+		Assert.assertArrayEquals(new String[] { "t0", "t1", "t2" },
+				_result.toArray());
+	}
+
+	@Test(timeout = 2000)
+	public void singlethreaded() throws InterruptedException,
+			ExecutionException {
+		SingleThreadedDAGExecutor executor = new SingleThreadedDAGExecutor();
+		executor.setOptimizeGraphs(true);
+		testExecute(executor.submit(chain(new Task("t1"))));
+	}
+
+	@Test(timeout = 2000)
+	public void multithreaded() throws InterruptedException,
+			ExecutionException, DependencyDoesNotExistException {
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		executor.setOptimizeGraphs(true);
+		testExecute(executor.submit(chain(new Task("t1"))));
+		executor.shutdown();
+	}
+
+	private void testExecute(DAGFuture future) throws InterruptedException,
+			ExecutionException {
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, future.get());
+		Assert.assertEquals(4, future.numTasks());
+		Assert.assertEquals(4, future.numFinishedTasks());
+		String[] expecteds = { "t0", "t1", "t2", "t3" };
+		Assert.assertArrayEquals(expecteds, _result.toArray());
+	}
+
+	/** An error inside a fused chain is reported against the member */
+	@Test(timeout = 2000)
+	public void memberError() throws InterruptedException,
+			ExecutionException, DependencyDoesNotExistException {
+		Runnable fails = new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		};
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		executor.setOptimizeGraphs(true);
+		DAGFuture future = executor.submit(chain(fails));
+
+		Assert.assertEquals(DAG.Status.ERRORS, future.get());
+		Assert.assertEquals(2, future.numFinishedTasks());
+		Assert.assertEquals(1, future.getErrors().size());
+		Assert.assertTrue(future.getErrors().get(fails) instanceof IllegalStateException);
+		Assert.assertArrayEquals(new String[] { "t0" }, _result.toArray());
+		executor.shutdown();
+	}
+
+	/** Cancelling the graph stops a fused chain before its next member */
+	@Test(timeout = 2000)
+	public void cancelStopsChain() throws InterruptedException,
+			DependencyDoesNotExistException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable gate = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+			}
+		};
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		executor.setOptimizeGraphs(true);
+		DAGFuture future = executor.submit(chain(gate));
+
+		started.await();
+		Assert.assertTrue(future.cancel(false));
+		release.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		Assert.assertEquals(2, future.numFinishedTasks());
+		Assert.assertArrayEquals(new String[] { "t0" }, _result.toArray());
+	}
+
+	/** An error in another unit stops a fused chain before its next member */
+	@Test(timeout = 2000)
+	public void errorStopsChain() throws InterruptedException,
+			DependencyDoesNotExistException {
+		final DAG dag = new DAG();
+		Task root = new Task("root");
+		Runnable fails = new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		};
+		Runnable gate = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (dag.getErrors() == null)
+						Thread.sleep(1);
+					// Let the executor see the error and stop scheduling
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+			}
+		};
+		Task c1 = new Task("c1");
+		Task c2 = new Task("c2");
+		dag.insert(root);
+		dag.insert(fails, root);
+		dag.insert(gate, root);
+		dag.insert(c1, gate);
+		dag.insert(c2, c1);
+
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		executor.setOptimizeGraphs(true);
+		DAGFuture future = executor.submit(dag);
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		Assert.assertEquals(DAG.Status.ERRORS, future.status());
+		Assert.assertEquals(3, future.numFinishedTasks());
+		Assert.assertArrayEquals(new String[] { "root" }, _result.toArray());
+	}
+
+	/** A long fused chain is traced as one task with a short name */
+	@Test(timeout = 2000)
+	public void traceLongChain() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExecutionTraceWriter writer = new ExecutionTraceWriter(bytes);
+		SingleThreadedDAGExecutor executor = new SingleThreadedDAGExecutor();
+		executor.setOptimizeGraphs(true);
+		executor.setTraceWriter(writer);
+
+		DAG dag = new DAG();
+		Task previous = new Task("t0");
+		dag.insert(previous);
+		for (int i = 1; i < 2000; i++) {
+			Task t = new Task("t" + i);
+			dag.insert(t, previous);
+			previous = t;
+		}
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, executor
+				.submit(dag).status());
+		writer.close();
+
+		ExecutionTrace trace = ExecutionTrace.read(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		Assert.assertEquals(1, trace.tasks().size());
+		Assert.assertEquals("t0 +1999 more", trace.tasks().iterator().next()
+				.name());
+		Assert.assertEquals(2000, _result.size());
+	}
+
+	public class Task implements Runnable {
+
+		private final String _name;
+
+		public Task(String name) {
+			_name = name;
+		}
+
+		@Override
+		public void run() {
+			_result.add(_name);
+		}
+
+		@Override
+		public String toString() {
+			return _name;
+		}
+
+	}
+
+}
@@ -19,16 +19,24 @@ package com.isaacdooley.dagexecutortests;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGFuture;
 import com.isaacdooley.dagexecutor.DAGExecutor;
+import com.isaacdooley.dagexecutor.DAGTopology;
 import com.isaacdooley.dagexecutor.DependencyDoesNotExistException;
 import com.isaacdooley.dagexecutor.MultiThreadedDAGExecutor;
 import com.isaacdooley.dagexecutor.SingleThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.TaskResolver;
 
 
 public class DAGTest {
@@ -229,6 +237,208 @@ public class DAGTest {
 		
 	}
 	
+	/** Serve several graphs from one executor without shutting it down */
+	@Test(timeout = 2000)
+	public void futures() 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor(2);
+
+		for (int i = 0; i < 10; i++) {
+			_result = Collections.synchronizedList(new ArrayList<String>());
+			DAG dag = new DAG();
+			Task t0 = new Task("t0");
+			Task t1 = new Task("t1");
+			Task t2 = new Task("t2");
+			dag.insert(t0);
+			dag.insert(t1, t0);
+			dag.insert(t2, t0);
+
+			DAGFuture future = executor.submit(dag);
+			Assert.assertEquals(3, future.numTasks());
+			Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, future.get());
+			Assert.assertEquals(3, future.numFinishedTasks());
+			Assert.assertNull(future.getErrors());
+			Assert.assertEquals(3, _result.size());
+		}
+		Assert.assertFalse(executor.isShutdown());
+		executor.shutdown();
+	}
+
+	@Test(timeout = 2000)
+	public void singlethreadedFutureErrors() 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		testFutureErrors(new SingleThreadedDAGExecutor());
+	}
+
+	@Test(timeout = 2000)
+	public void multithreadedFutureErrors() 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		testFutureErrors(new MultiThreadedDAGExecutor());
+	}
+
+	/** A failing task stops its dependents, and is reported by the future */
+	public void testFutureErrors(DAGExecutor executor) 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		_result = Collections.synchronizedList(new ArrayList<String>());
+		DAG dag = new DAG();
+		Task t0 = new Task("t0");
+		Runnable fails = new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		};
+		Task t2 = new Task("t2");
+		dag.insert(t0);
+		dag.insert(fails, t0);
+		dag.insert(t2, fails);
+
+		DAGFuture future = executor.submit(dag);
+		Assert.assertEquals(DAG.Status.ERRORS, future.get());
+		Assert.assertEquals(2, future.numFinishedTasks());
+		Assert.assertEquals(1, future.getErrors().size());
+		Assert.assertTrue(future.getErrors().get(fails) instanceof IllegalStateException);
+
+		String[] expecteds = {"t0"};
+		Assert.assertArrayEquals(expecteds, _result.toArray());
+		executor.shutdown();
+	}
+
+	@Test(timeout = 2000)
+	public void emptyGraph() 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		DAGExecutor[] executors = { new SingleThreadedDAGExecutor(),
+				new MultiThreadedDAGExecutor(1) };
+		for (DAGExecutor executor : executors) {
+			DAGFuture future = executor.submit(new DAG());
+			Assert.assertTrue(future.isDone());
+			Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, future.get());
+			Assert.assertEquals(0, future.numTasks());
+
+			// The executor still serves later graphs
+			_result = Collections.synchronizedList(new ArrayList<String>());
+			DAG dag = new DAG();
+			dag.insert(new Task("t0"));
+			Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS,
+					executor.submit(dag).get());
+			Assert.assertEquals(1, _result.size());
+			executor.shutdown();
+		}
+	}
+
+	/** The only task fails, so it is also the last task scheduled */
+	@Test(timeout = 2000)
+	public void singleFailingTask() 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		final Runnable fails = new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		};
+		DAG dag = new DAG();
+		dag.insert(fails);
+		DAG compact = new DAGTopology.Builder().addTask(0).build()
+				.toDAG(new TaskResolver() {
+					@Override
+					public Runnable resolve(long id) {
+						return fails;
+					}
+				});
+
+		DAGExecutor[] executors = { new SingleThreadedDAGExecutor(),
+				new MultiThreadedDAGExecutor() };
+		for (DAGExecutor executor : executors) {
+			for (DAG graph : new DAG[] { dag, compact }) {
+				DAGFuture future = executor.submit(graph);
+				Assert.assertEquals(DAG.Status.ERRORS, future.get());
+				Assert.assertEquals(DAG.Status.ERRORS, graph.status());
+				Assert.assertEquals(1, future.numFinishedTasks());
+				Assert.assertTrue(future.getErrors().get(fails) instanceof IllegalStateException);
+			}
+			executor.shutdown();
+		}
+	}
+
+	/** Cancelling stops the rest of a chain from being scheduled */
+	@Test(timeout = 2000)
+	public void cancel() 
+	throws InterruptedException, DependencyDoesNotExistException {
+		_result = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable t0 = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+				_result.add("t0");
+			}
+		};
+		Task t1 = new Task("t1");
+		Task t2 = new Task("t2");
+		DAG dag = new DAG();
+		dag.insert(t0);
+		dag.insert(t1, t0);
+		dag.insert(t2, t1);
+
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		DAGFuture future = executor.submit(dag);
+		started.await();
+		Assert.assertTrue(future.cancel(false));
+		release.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		Assert.assertTrue(future.isCancelled());
+		try {
+			future.get();
+			Assert.fail();
+		} catch (CancellationException e) {
+			// expected
+		} catch (ExecutionException e) {
+			Assert.fail();
+		}
+		Assert.assertArrayEquals(new String[] { "t0" }, _result.toArray());
+		Assert.assertEquals(1, future.numFinishedTasks());
+	}
+
+	@Test(timeout = 2000)
+	public void futureTimeoutAndListener() 
+	throws InterruptedException, DependencyDoesNotExistException, ExecutionException {
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		_result = Collections.synchronizedList(new ArrayList<String>());
+		DAG dag = new DAG();
+		dag.insert(new Task("t0", 300));
+
+		final CountDownLatch notified = new CountDownLatch(1);
+		DAGFuture future = executor.submit(dag);
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				notified.countDown();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+			// expected
+		}
+		Assert.assertFalse(future.isDone());
+		Assert.assertEquals(0, future.numFinishedTasks());
+
+		Assert.assertTrue(notified.await(1, TimeUnit.SECONDS));
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, future.status());
+		executor.shutdown();
+	}
+	
 	public class Task implements Runnable {
 
 		private final String _name;
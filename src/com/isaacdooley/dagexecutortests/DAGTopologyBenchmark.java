@@ -0,0 +1,123 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGTopology;
+import com.isaacdooley.dagexecutor.TaskResolver;
+
+/**
+ * Compares building a large DAG edge by edge with insert() against loading
+ * the same graph from a DAGTopology file and binding it with toDAG(). Each
+ * task depends on up to three random earlier tasks. The first run of each
+ * step is a warm-up and is not counted.
+ *
+ * Usage: DAGTopologyBenchmark [num-tasks [runs]]
+ */
+public class DAGTopologyBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numTasks = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		final Runnable[] tasks = new Runnable[numTasks];
+		for (int i = 0; i < numTasks; i++) {
+			tasks[i] = new Runnable() {
+				@Override
+				public void run() {
+				}
+			};
+		}
+		Random random = new Random(1);
+		int[][] dependencies = new int[numTasks][];
+		int numDependencies = 0;
+		for (int i = 0; i < numTasks; i++) {
+			dependencies[i] = new int[Math.min(i, 3)];
+			for (int j = 0; j < dependencies[i].length; j++)
+				dependencies[i][j] = random.nextInt(i);
+			numDependencies += dependencies[i].length;
+		}
+
+		DAGTopology.Builder builder = new DAGTopology.Builder();
+		for (int i = 0; i < numTasks; i++)
+			builder.addTask(i);
+		for (int i = 0; i < numTasks; i++) {
+			for (int d : dependencies[i])
+				builder.addDependency(i, d);
+		}
+		File file = File.createTempFile("benchmark", ".dag");
+		file.deleteOnExit();
+		builder.build().write(file);
+		builder = null;
+
+		TaskResolver resolver = new TaskResolver() {
+			@Override
+			public Runnable resolve(long id) {
+				return tasks[(int) id];
+			}
+		};
+
+		Timings insert = new Timings();
+		Timings read = new Timings();
+		Timings bind = new Timings();
+		for (int run = 0; run <= runs; run++) {
+			long insertStart = System.nanoTime();
+			DAG dag = new DAG();
+			for (int i = 0; i < numTasks; i++) {
+				dag.insert(tasks[i]);
+				for (int d : dependencies[i])
+					dag.insert(tasks[i], tasks[d]);
+			}
+			long inserted = System.nanoTime();
+			check(dag, numTasks);
+			dag = null;
+
+			long readStart = System.nanoTime();
+			DAGTopology topology = DAGTopology.read(file);
+			long loaded = System.nanoTime();
+			dag = topology.toDAG(resolver);
+			long bound = System.nanoTime();
+			check(dag, numTasks);
+			dag = null;
+
+			if (run > 0) {
+				insert.add(inserted - insertStart);
+				read.add(loaded - readStart);
+				bind.add(bound - loaded);
+			}
+		}
+
+		System.out.println(numTasks + " tasks, " + numDependencies
+				+ " dependencies, " + file.length() + " byte file, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		System.out.println("insert() per edge:   " + insert);
+		System.out.println("DAGTopology.read():  " + read);
+		System.out.println("toDAG():             " + bind);
+		file.delete();
+	}
+
+	private static void check(DAG dag, int numTasks) {
+		if (dag.numTasks() != numTasks)
+			throw new IllegalStateException("Expected " + numTasks
+					+ " tasks, not " + dag.numTasks());
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGTopology;
+import com.isaacdooley.dagexecutor.DependencyDoesNotExistException;
+import com.isaacdooley.dagexecutor.MultiThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.SingleThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.TaskResolver;
+
+public class DAGTopologyTest {
+
+	List<Long> _result = Collections.synchronizedList(new ArrayList<Long>());
+
+	private final TaskResolver _resolver = new TaskResolver() {
+		@Override
+		public Runnable resolve(final long id) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					_result.add(id);
+				}
+			};
+		}
+	};
+
+	private DAGTopology roundTrip(DAGTopology topology) throws IOException {
+		File file = File.createTempFile("topology", ".dag");
+		try {
+			topology.write(file);
+			return DAGTopology.read(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(timeout = 2000)
+	public void roundTripAndExecute() throws IOException {
+		// Ids are deliberately sparse, negative and out of order
+		DAGTopology.Builder builder = new DAGTopology.Builder();
+		builder.addTask(1000, 1.5).addTask(-7, 2).addTask(42).addTask(3);
+		builder.addDependency(1000, 42);
+		builder.addDependency(1000, -7);
+		builder.addDependency(-7, 3);
+		builder.addDependency(42, 3);
+		builder.addDependency(42, 3);
+
+		DAGTopology topology = roundTrip(builder.build());
+		Assert.assertEquals(4, topology.numTasks());
+		Assert.assertEquals(4, topology.numDependencies());
+		Assert.assertEquals(-7, topology.id(1));
+		Assert.assertArrayEquals(new int[] { 1, 2 }, topology.dependencies(0));
+		Assert.assertTrue(topology.hasCosts());
+		Assert.assertEquals(1.5, topology.cost(0), 0);
+		Assert.assertEquals(0, topology.cost(2), 0);
+		Assert.assertTrue(topology.isAcyclic());
+		Assert.assertEquals(3, topology.topologicalOrder()[0]);
+		Assert.assertEquals(0, topology.topologicalOrder()[3]);
+
+		DAG dag = topology.toDAG(_resolver);
+		new SingleThreadedDAGExecutor().submit(dag);
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, dag.status());
+		Assert.assertEquals(4, _result.size());
+		Assert.assertEquals(Long.valueOf(3), _result.get(0));
+		Assert.assertEquals(Long.valueOf(1000), _result.get(3));
+	}
+
+	@Test(timeout = 2000)
+	public void cycle() throws IOException {
+		DAGTopology.Builder builder = new DAGTopology.Builder();
+		builder.addTask(0).addTask(1).addTask(2);
+		builder.addDependency(1, 2);
+		builder.addDependency(2, 1);
+
+		DAGTopology topology = roundTrip(builder.build());
+		Assert.assertFalse(topology.hasCosts());
+		Assert.assertFalse(topology.isAcyclic());
+		Assert.assertArrayEquals(new int[] { 0 }, topology.topologicalOrder());
+
+		DAG dag = topology.toDAG(_resolver);
+		new SingleThreadedDAGExecutor().submit(dag);
+		Assert.assertEquals(DAG.Status.INVALID_DEPENDENCIES, dag.status());
+		Assert.assertEquals(1, _result.size());
+	}
+
+	@Test(timeout = 2000)
+	public void multithreaded() throws IOException, InterruptedException,
+			DependencyDoesNotExistException {
+		// Task i depends on tasks i/2 and i-1, giving fan-out and fan-in
+		int numTasks = 200;
+		DAGTopology.Builder builder = new DAGTopology.Builder();
+		for (int i = 0; i < numTasks; i++)
+			builder.addTask(i);
+		for (int i = 1; i < numTasks; i++) {
+			builder.addDependency(i, i / 2);
+			builder.addDependency(i, i - 1);
+		}
+
+		DAG dag = roundTrip(builder.build()).toDAG(_resolver);
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor(4);
+		executor.submit(dag);
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, dag.status());
+		Assert.assertEquals(numTasks, _result.size());
+		for (int i = 0; i < numTasks; i++)
+			Assert.assertEquals(Long.valueOf(i), _result.get(i));
+	}
+
+	/** Replace the byte at index with the specified bytes */
+	private static byte[] splice(byte[] bytes, int index, int... replacement) {
+		byte[] spliced = new byte[bytes.length - 1 + replacement.length];
+		System.arraycopy(bytes, 0, spliced, 0, index);
+		for (int k = 0; k < replacement.length; k++)
+			spliced[index + k] = (byte) replacement[k];
+		System.arraycopy(bytes, index + 1, spliced,
+				index + replacement.length, bytes.length - index - 1);
+		return spliced;
+	}
+
+	@Test(timeout = 2000)
+	public void corrupt() throws IOException {
+		File file = File.createTempFile("topology", ".dag");
+		try {
+			new DAGTopology.Builder().addTask(0).addTask(1)
+					.addDependency(1, 0).build().write(file);
+			byte[] bytes = Files.toByteArray(file);
+			// The header is followed by varints for the number of tasks (at
+			// 6), dependencies (7) and order entries (8); the order is at 11
+			byte[][] corrupted = {
+					splice(bytes, 6, 0x7f), // too many tasks
+					splice(bytes, 6, 0xff, 0xff, 0xff, 0xff, 0x0f), // -1 tasks
+					splice(bytes, 7, 0xff, 0xff, 0xff, 0xff, 0x0f),
+					splice(bytes, 8, 3), // more order entries than tasks
+					splice(bytes, 12, 10), // order entry 5 of 2 tasks
+					splice(splice(bytes, 11, 2), 12, 1), // order 1, 0
+					Arrays.copyOf(bytes, 14) };
+			for (byte[] b : corrupted) {
+				Files.write(b, file);
+				try {
+					DAGTopology.read(file);
+					Assert.fail();
+				} catch (IOException e) {
+					// expected
+				}
+			}
+
+			Files.write(bytes, file);
+			Assert.assertTrue(DAGTopology.read(file).isAcyclic());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Any topological order may be stored, including one that does not list
+	 * every task without dependencies first, but it must not omit tasks
+	 * outside a cycle.
+	 */
+	@Test(timeout = 2000)
+	public void storedOrder() throws IOException {
+		File file = File.createTempFile("topology", ".dag");
+		try {
+			new DAGTopology.Builder().addTask(0).addTask(1).addTask(2)
+					.addDependency(1, 0).build().write(file);
+			byte[] bytes = Files.toByteArray(file);
+			// The order [0, 2, 1] is stored at 12 as deltas 0, +2, -1
+			Assert.assertArrayEquals(new byte[] { 0, 4, 1 },
+					Arrays.copyOfRange(bytes, 12, 15));
+
+			// [0, 1, 2] is also a topological order
+			Files.write(splice(splice(bytes, 13, 2), 14, 2), file);
+			DAGTopology topology = DAGTopology.read(file);
+			Assert.assertTrue(topology.isAcyclic());
+			DAG dag = topology.toDAG(_resolver);
+			new SingleThreadedDAGExecutor().submit(dag);
+			Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, dag.status());
+			Assert.assertEquals(3, _result.size());
+
+			// [0, 2] omits 1 although its only dependency is listed
+			Files.write(splice(splice(bytes, 14), 8, 2), file);
+			try {
+				DAGTopology.read(file);
+				Assert.fail();
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownDependency() {
+		new DAGTopology.Builder().addTask(0).addDependency(0, 1);
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGExecutor;
+import com.isaacdooley.dagexecutor.DependencyDoesNotExistException;
+import com.isaacdooley.dagexecutor.ExecutionTrace;
+import com.isaacdooley.dagexecutor.ExecutionTraceWriter;
+import com.isaacdooley.dagexecutor.MultiThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.SingleThreadedDAGExecutor;
+
+public class ExecutionTraceTest {
+
+	/** Build a diamond where the path through "slow" is the critical path */
+	private DAG diamond() {
+		DAG dag = new DAG();
+		SleepTask top = new SleepTask("top", 0);
+		SleepTask slow = new SleepTask("slow", 100);
+		SleepTask fast = new SleepTask("fast", 0);
+		SleepTask bottom = new SleepTask("bottom", 0);
+		dag.insert(top);
+		dag.insert(slow, top);
+		dag.insert(fast, top);
+		dag.insert(bottom, slow);
+		dag.insert(bottom, fast);
+		return dag;
+	}
+
+	@Test(timeout = 2000)
+	public void multithreaded() throws InterruptedException,
+			DependencyDoesNotExistException, IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExecutionTraceWriter writer = new ExecutionTraceWriter(bytes);
+
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor();
+		executor.setTraceWriter(writer);
+		DAG dag = diamond();
+		executor.submit(dag);
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		writer.close();
+
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, dag.status());
+		ExecutionTrace trace = ExecutionTrace.read(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		verifyDiamondTrace(trace);
+
+		// With slow and fast running in parallel, slow gates bottom
+		List<String> path = new ArrayList<String>();
+		for (ExecutionTrace.Task t : trace.criticalPath())
+			path.add(t.name());
+		Assert.assertArrayEquals(new String[] { "top", "slow", "bottom" },
+				path.toArray());
+	}
+
+	@Test(timeout = 2000)
+	public void singlethreaded() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExecutionTraceWriter writer = new ExecutionTraceWriter(bytes);
+
+		SingleThreadedDAGExecutor executor = new SingleThreadedDAGExecutor();
+		executor.setTraceWriter(writer);
+		DAG dag = diamond();
+		executor.submit(dag);
+		writer.close();
+
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, dag.status());
+		ExecutionTrace trace = ExecutionTrace.read(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		verifyDiamondTrace(trace);
+		Assert.assertEquals(1, trace.idleWorkerNanos().size());
+	}
+
+	/** A name too long for writeUTF() is truncated rather than failing */
+	@Test(timeout = 2000)
+	public void longName() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ExecutionTraceWriter writer = new ExecutionTraceWriter(bytes);
+
+		SingleThreadedDAGExecutor executor = new SingleThreadedDAGExecutor();
+		executor.setTraceWriter(writer);
+		StringBuilder name = new StringBuilder();
+		while (name.length() < 100000)
+			name.append("long");
+		DAG dag = new DAG();
+		dag.insert(new SleepTask(name.toString(), 0));
+		executor.submit(dag);
+		writer.close();
+
+		ExecutionTrace trace = ExecutionTrace.read(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		Assert.assertEquals(1, trace.tasks().size());
+		ExecutionTrace.Task t = trace.tasks().iterator().next();
+		Assert.assertTrue(t.wasExecuted());
+		Assert.assertEquals(1024, t.name().length());
+		Assert.assertTrue(t.name().endsWith("..."));
+	}
+
+	/** A dependency may be a different instance equal to a task */
+	@Test(timeout = 2000)
+	public void equalTasks() throws InterruptedException,
+			DependencyDoesNotExistException, ExecutionException, IOException {
+		DAGExecutor[] executors = { new SingleThreadedDAGExecutor(),
+				new MultiThreadedDAGExecutor() };
+		for (DAGExecutor executor : executors) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ExecutionTraceWriter writer = new ExecutionTraceWriter(bytes);
+			setTraceWriter(executor, writer);
+			DAG dag = new DAG();
+			dag.insert(new NamedTask("a"));
+			dag.insert(new NamedTask("b"), new NamedTask("a"));
+			Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, executor
+					.submit(dag).get());
+			executor.shutdown();
+			writer.close();
+
+			ExecutionTrace trace = ExecutionTrace.read(new ByteArrayInputStream(
+					bytes.toByteArray()));
+			Assert.assertEquals(2, trace.tasks().size());
+			Assert.assertEquals(1, trace.edges().size());
+			for (ExecutionTrace.Task t : trace.tasks())
+				Assert.assertTrue(t.wasExecuted());
+		}
+	}
+
+	/** A task whose toString() throws disables the trace, not the graph */
+	@Test(timeout = 2000)
+	public void failingToString() throws InterruptedException,
+			DependencyDoesNotExistException, ExecutionException, IOException {
+		DAGExecutor[] executors = { new SingleThreadedDAGExecutor(),
+				new MultiThreadedDAGExecutor() };
+		for (DAGExecutor executor : executors) {
+			ExecutionTraceWriter writer = new ExecutionTraceWriter(
+					new ByteArrayOutputStream());
+			setTraceWriter(executor, writer);
+			DAG dag = new DAG();
+			dag.insert(new Runnable() {
+				@Override
+				public void run() {
+				}
+
+				@Override
+				public String toString() {
+					throw new IllegalStateException("no name");
+				}
+			});
+			Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, executor
+					.submit(dag).get());
+			executor.shutdown();
+			try {
+				writer.close();
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+	}
+
+	private static void setTraceWriter(DAGExecutor executor,
+			ExecutionTraceWriter writer) {
+		if (executor instanceof MultiThreadedDAGExecutor)
+			((MultiThreadedDAGExecutor) executor).setTraceWriter(writer);
+		else
+			((SingleThreadedDAGExecutor) executor).setTraceWriter(writer);
+	}
+
+	private void verifyDiamondTrace(ExecutionTrace trace) throws IOException {
+		Assert.assertEquals(4, trace.tasks().size());
+		Assert.assertEquals(4, trace.edges().size());
+		for (ExecutionTrace.Task t : trace.tasks()) {
+			Assert.assertTrue(t.wasExecuted());
+			Assert.assertFalse(t.failed());
+			Assert.assertTrue(t.readyNanos() <= t.startNanos());
+			Assert.assertTrue(t.startNanos() <= t.endNanos());
+		}
+
+		// Lag into bottom is measured from whichever of slow and fast
+		// finished last, so it excludes the 100ms that slow runs for
+		Map<ExecutionTrace.Task, ExecutionTrace.Lag> lag = trace
+				.schedulerLag();
+		Assert.assertEquals(3, lag.size());
+		for (Map.Entry<ExecutionTrace.Task, ExecutionTrace.Lag> e : lag
+				.entrySet()) {
+			ExecutionTrace.Lag l = e.getValue();
+			Assert.assertTrue(l.dispatchNanos() >= 0);
+			Assert.assertTrue(l.queueNanos() >= 0);
+			if (e.getKey().name().equals("bottom"))
+				Assert.assertTrue(l.totalNanos() < TimeUnit.MILLISECONDS
+						.toNanos(50));
+		}
+
+		StringWriter json = new StringWriter();
+		trace.writeChromeTrace(json);
+		Assert.assertTrue(json.toString().startsWith("{"));
+		Assert.assertTrue(json.toString().contains("\"name\":\"slow\""));
+	}
+
+	/** Tasks with equal names are equal */
+	private static class NamedTask implements Runnable {
+		private final String _name;
+
+		NamedTask(String name) {
+			_name = name;
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof NamedTask && ((NamedTask) o)._name.equals(_name);
+		}
+
+		@Override
+		public int hashCode() {
+			return _name.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return _name;
+		}
+	}
+
+	private static class SleepTask implements Runnable {
+		private final String _name;
+		private final long _sleepMillis;
+
+		SleepTask(String name, long sleepMillis) {
+			_name = name;
+			_sleepMillis = sleepMillis;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Thread.sleep(_sleepMillis);
+			} catch (InterruptedException e) {
+				// do nothing
+			}
+		}
+
+		@Override
+		public String toString() {
+			return _name;
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.DAGFuture;
+import com.isaacdooley.dagexecutor.DependencyDoesNotExistException;
+import com.isaacdooley.dagexecutor.MultiThreadedDAGExecutor;
+import com.isaacdooley.dagexecutor.RecordTask;
+import com.isaacdooley.dagexecutor.StreamingDAG;
+import com.isaacdooley.dagexecutor.StreamingDAGExecutor;
+
+/**
+ * Measures records per second through a fan-out graph of ten trivial tasks
+ * per record (one task, then eight in parallel, then one), comparing a new DAG
+ * submitted to MultiThreadedDAGExecutor per record against
+ * StreamingDAGExecutor in unordered and ordered mode. The modes are
+ * interleaved within each run so drift affects them equally, and the first
+ * run is a warm-up that is not counted.
+ *
+ * Usage: StreamingBenchmark [records [threads [max-in-flight [runs]]]]
+ */
+public class StreamingBenchmark {
+
+	private static final int WIDTH = 8;
+
+	private static final AtomicLong _sink = new AtomicLong();
+
+	public static void main(String[] args) throws InterruptedException,
+			ExecutionException, DependencyDoesNotExistException {
+		int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		StreamingDAG<long[]> graph = new StreamingDAG<long[]>();
+		RecordTask<long[]> top = new Step();
+		RecordTask<long[]> bottom = new Step();
+		for (int k = 0; k < WIDTH; k++) {
+			RecordTask<long[]> middle = new Step();
+			graph.insert(middle, top);
+			graph.insert(bottom, middle);
+		}
+
+		Timings perRecord = new Timings();
+		Timings unordered = new Timings();
+		Timings ordered = new Timings();
+		for (int run = 0; run <= runs; run++) {
+			long perRecordNanos = submitPerRecord(numRecords, numThreads,
+					maxInFlight);
+			long unorderedNanos = stream(graph, numRecords, numThreads,
+					maxInFlight, false);
+			long orderedNanos = stream(graph, numRecords, numThreads,
+					maxInFlight, true);
+			if (run > 0) {
+				perRecord.add(perRecordNanos);
+				unordered.add(unorderedNanos);
+				ordered.add(orderedNanos);
+			}
+		}
+
+		System.out.println(numRecords + " records of " + (WIDTH + 2)
+				+ " tasks, " + numThreads + " worker threads, "
+				+ maxInFlight + " in flight, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		print("DAG per record:      ", perRecord, numRecords);
+		print("streaming, unordered:", unordered, numRecords);
+		print("streaming, ordered:  ", ordered, numRecords);
+	}
+
+	private static void print(String name, Timings timings, int numRecords) {
+		System.out.printf("%s %.0f records/s, %s%n", name,
+				timings.medianRate(numRecords), timings);
+	}
+
+	/**
+	 * Submit one DAG per record, waiting on the oldest future to keep at most
+	 * maxInFlight graphs outstanding, as StreamingDAGExecutor does.
+	 */
+	private static long submitPerRecord(int numRecords, int numThreads,
+			int maxInFlight) throws InterruptedException, ExecutionException,
+			DependencyDoesNotExistException {
+		long start = System.nanoTime();
+		MultiThreadedDAGExecutor executor = new MultiThreadedDAGExecutor(
+				numThreads);
+		DAGFuture[] inFlight = new DAGFuture[maxInFlight];
+		for (int r = 0; r < numRecords; r++) {
+			long[] record = { r };
+			DAG dag = new DAG();
+			Runnable top = new RecordRunnable(record);
+			Runnable bottom = new RecordRunnable(record);
+			dag.insert(top);
+			for (int k = 0; k < WIDTH; k++) {
+				Runnable middle = new RecordRunnable(record);
+				dag.insert(middle, top);
+				dag.insert(bottom, middle);
+			}
+			int slot = r % maxInFlight;
+			if (inFlight[slot] != null)
+				inFlight[slot].get();
+			inFlight[slot] = executor.submit(dag);
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		// shutdown() leaves the idle worker threads running
+		executor.shutdownNow();
+		return elapsed;
+	}
+
+	private static long stream(StreamingDAG<long[]> graph, int numRecords,
+			int numThreads, int maxInFlight, boolean ordered)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		StreamingDAGExecutor<long[]> executor = new StreamingDAGExecutor<long[]>(
+				graph, numThreads, maxInFlight, ordered, null);
+		for (int r = 0; r < numRecords; r++)
+			executor.put(new long[] { r });
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.MINUTES);
+		return System.nanoTime() - start;
+	}
+
+	private static class Step implements RecordTask<long[]> {
+		@Override
+		public void run(long[] record) {
+			_sink.addAndGet(record[0]);
+		}
+	}
+
+	private static class RecordRunnable implements Runnable {
+		private final long[] _record;
+
+		RecordRunnable(long[] record) {
+			_record = record;
+		}
+
+		@Override
+		public void run() {
+			_sink.addAndGet(_record[0]);
+		}
+	}
+
+}
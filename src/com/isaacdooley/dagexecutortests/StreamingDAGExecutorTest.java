@@ -0,0 +1,303 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.isaacdooley.dagexecutor.DAG;
+import com.isaacdooley.dagexecutor.RecordListener;
+import com.isaacdooley.dagexecutor.RecordTask;
+import com.isaacdooley.dagexecutor.StreamingDAG;
+import com.isaacdooley.dagexecutor.StreamingDAGExecutor;
+
+public class StreamingDAGExecutorTest {
+
+	List<Record> _completed = Collections
+			.synchronizedList(new ArrayList<Record>());
+	List<DAG.Status> _statuses = Collections
+			.synchronizedList(new ArrayList<DAG.Status>());
+
+	private final RecordListener<Record> _listener = new RecordListener<Record>() {
+		@Override
+		public void recordCompleted(Record record, DAG.Status status,
+				Map<RecordTask<Record>, Throwable> errors) {
+			_completed.add(record);
+			_statuses.add(status);
+		}
+	};
+
+	/** Build a diamond a -> {b, c} -> d */
+	private StreamingDAG<Record> diamond() {
+		StreamingDAG<Record> graph = new StreamingDAG<Record>();
+		Step a = new Step("a");
+		Step b = new Step("b");
+		Step c = new Step("c");
+		Step d = new Step("d");
+		graph.insert(b, a);
+		graph.insert(c, a);
+		graph.insert(d, b);
+		graph.insert(d, c);
+		return graph;
+	}
+
+	@Test(timeout = 5000)
+	public void orderedStream() throws InterruptedException {
+		StreamingDAGExecutor<Record> executor = new StreamingDAGExecutor<Record>(
+				diamond(), 4, 8, true, _listener);
+
+		int numRecords = 500;
+		List<Record> records = new ArrayList<Record>();
+		for (int i = 0; i < numRecords; i++) {
+			Record r = new Record(i % 7 == 0 ? 2 : 0);
+			records.add(r);
+			executor.put(r);
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(4, TimeUnit.SECONDS));
+
+		Assert.assertEquals(records, _completed);
+		for (Record r : records) {
+			Assert.assertEquals(4, r._steps.size());
+			Assert.assertEquals("a", r._steps.get(0));
+			Assert.assertEquals("d", r._steps.get(3));
+		}
+		Assert.assertEquals(0, executor.numInFlight());
+	}
+
+	@Test(timeout = 2000)
+	public void backpressure() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		StreamingDAG<Record> graph = new StreamingDAG<Record>();
+		graph.insert(new RecordTask<Record>() {
+			@Override
+			public void run(Record record) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+			}
+		});
+
+		StreamingDAGExecutor<Record> executor = new StreamingDAGExecutor<Record>(
+				graph, 4, 2, false, _listener);
+		executor.put(new Record(0));
+		executor.put(new Record(0));
+		Assert.assertFalse(executor.offer(new Record(0), 50,
+				TimeUnit.MILLISECONDS));
+		Assert.assertEquals(2, executor.numInFlight());
+
+		release.countDown();
+		Assert.assertTrue(executor.offer(new Record(0), 1, TimeUnit.SECONDS));
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		Assert.assertEquals(3, _completed.size());
+
+		try {
+			executor.put(new Record(0));
+			Assert.fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test(timeout = 2000)
+	public void errors() throws InterruptedException {
+		StreamingDAG<Record> graph = new StreamingDAG<Record>();
+		Step a = new Step("a");
+		RecordTask<Record> fails = new RecordTask<Record>() {
+			@Override
+			public void run(Record record) {
+				if (record._sleepMillis < 0)
+					throw new RuntimeException("failed");
+			}
+		};
+		Step c = new Step("c");
+		graph.insert(fails, a);
+		graph.insert(c, fails);
+
+		StreamingDAGExecutor<Record> executor = new StreamingDAGExecutor<Record>(
+				graph, 2, 4, true, _listener);
+		Record bad = new Record(-1);
+		Record good = new Record(0);
+		executor.put(bad);
+		executor.put(good);
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		Assert.assertEquals(DAG.Status.ERRORS, _statuses.get(0));
+		Assert.assertEquals(DAG.Status.COMPLETED_ALL_TASKS, _statuses.get(1));
+		Assert.assertEquals(Collections.singletonList("a"), bad._steps);
+		Assert.assertEquals(2, good._steps.size());
+	}
+
+	/** Producers blocked in put() fail rather than hang after shutdownNow() */
+	@Test(timeout = 2000)
+	public void shutdownNow() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		StreamingDAG<Record> graph = new StreamingDAG<Record>();
+		RecordTask<Record> first = new RecordTask<Record>() {
+			@Override
+			public void run(Record record) {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+			}
+		};
+		graph.insert(new Step("second"), first);
+
+		final StreamingDAGExecutor<Record> executor = new StreamingDAGExecutor<Record>(
+				graph, 2, 1, false, _listener);
+		executor.put(new Record(0));
+		final List<Throwable> failures = Collections
+				.synchronizedList(new ArrayList<Throwable>());
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					executor.put(new Record(0));
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}
+		};
+		producer.start();
+		started.await();
+		while (producer.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+
+		executor.shutdownNow();
+		producer.join(1000);
+		Assert.assertFalse(producer.isAlive());
+		Assert.assertEquals(1, failures.size());
+		Assert.assertTrue(failures.get(0) instanceof RejectedExecutionException);
+		Assert.assertEquals(0, executor.numInFlight());
+		Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		Assert.assertTrue(_completed.isEmpty());
+	}
+
+	/**
+	 * The listener runs without the executor's lock, and an exception it
+	 * throws does not stop later records from being reported.
+	 */
+	@Test(timeout = 2000)
+	public void orderedListener() throws InterruptedException {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Throwable> uncaught = Collections
+				.synchronizedList(new ArrayList<Throwable>());
+		final Record first = new Record(0);
+		RecordListener<Record> listener = new RecordListener<Record>() {
+			@Override
+			public void recordCompleted(Record record, DAG.Status status,
+					Map<RecordTask<Record>, Throwable> errors) {
+				_completed.add(record);
+				if (record == first) {
+					entered.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						// do nothing
+					}
+					throw new IllegalStateException("listener failed");
+				}
+			}
+		};
+
+		Thread.UncaughtExceptionHandler handler = Thread
+				.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				uncaught.add(e);
+			}
+		});
+		try {
+			StreamingDAGExecutor<Record> executor = new StreamingDAGExecutor<Record>(
+					diamond(), 2, 4, true, listener);
+			executor.put(first);
+			executor.put(new Record(0));
+			executor.put(new Record(0));
+			entered.await();
+			// Would block while the listener held the executor's lock
+			Assert.assertEquals(3, executor.numInFlight());
+			executor.shutdown();
+			release.countDown();
+
+			Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+			Assert.assertEquals(3, _completed.size());
+			Assert.assertEquals(0, executor.numInFlight());
+			Assert.assertEquals(1, uncaught.size());
+			Assert.assertTrue(uncaught.get(0) instanceof IllegalStateException);
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(handler);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cycle() {
+		StreamingDAG<Record> graph = new StreamingDAG<Record>();
+		Step a = new Step("a");
+		Step b = new Step("b");
+		graph.insert(a, b);
+		graph.insert(b, a);
+		new StreamingDAGExecutor<Record>(graph, 1, 1, false, null);
+	}
+
+	static class Record {
+		final List<String> _steps = Collections
+				.synchronizedList(new ArrayList<String>());
+		final long _sleepMillis;
+
+		Record(long sleepMillis) {
+			_sleepMillis = sleepMillis;
+		}
+	}
+
+	static class Step implements RecordTask<Record> {
+		private final String _name;
+
+		Step(String name) {
+			_name = name;
+		}
+
+		@Override
+		public void run(Record record) {
+			if (record._sleepMillis > 0) {
+				try {
+					Thread.sleep(record._sleepMillis);
+				} catch (InterruptedException e) {
+					// do nothing
+				}
+			}
+			record._steps.add(_name);
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+   Copyright 2011 Isaac Dooley
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.isaacdooley.dagexecutortests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Repeated timings of one benchmark step, summarized by their median and
+ * range. Used by the benchmark drivers in this package.
+ */
+class Timings {
+
+	private final List<Long> _nanos = new ArrayList<Long>();
+
+	void add(long nanos) {
+		_nanos.add(nanos);
+	}
+
+	/** The median time in milliseconds */
+	double medianMillis() {
+		List<Long> sorted = new ArrayList<Long>(_nanos);
+		Collections.sort(sorted);
+		int n = sorted.size();
+		double median = n % 2 == 1 ? sorted.get(n / 2)
+				: (sorted.get(n / 2 - 1) + sorted.get(n / 2)) / 2.0;
+		return median / 1e6;
+	}
+
+	/** Events per second at the median time */
+	double medianRate(long events) {
+		return events / (medianMillis() / 1e3);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("median %.1fms (min %.1fms, max %.1fms, %d runs)",
+				medianMillis(), Collections.min(_nanos) / 1e6,
+				Collections.max(_nanos) / 1e6, _nanos.size());
+	}
+
+}